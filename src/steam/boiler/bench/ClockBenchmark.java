@@ -0,0 +1,152 @@
+package steam.boiler.bench;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Measures the cost of a single call to {@link MySteamBoilerController#clock(Mailbox, Mailbox)} in
+ * each mode of operation, and for a range of pump counts. For each scenario, the controller is
+ * first driven into the relevant mode and is then repeatedly clocked with the same (pre-built)
+ * input, which keeps it in that mode. Scenarios are named after the mode their input is intended
+ * to produce, and the mode actually reached is reported alongside the figures.
+ *
+ * <p>
+ * Usage: <code>ClockBenchmark [pumps...]</code> where the default pump counts are 1, 4, 16 and 64.
+ * </p>
+ */
+public class ClockBenchmark {
+
+  public static void main(String[] args) {
+    int[] pumps = { 1, 4, 16, 64 };
+    if (args.length > 0) {
+      pumps = new int[args.length];
+      for (int i = 0; i != args.length; ++i) {
+        pumps[i] = Integer.parseInt(args[i]);
+      }
+    }
+    Harness harness = new Harness(5, 5, 200_000);
+    for (int n : pumps) {
+      SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+      config = config.setNumberOfPumps(n, config.getPumpCapacity(0));
+      for (Scenario scenario : Scenario.values()) {
+        MySteamBoilerController controller = new MySteamBoilerController(config);
+        Mailbox input = scenario.prepare(controller, config);
+        RingMailbox output = new RingMailbox(256);
+        Harness.Result result = harness.measure(() -> {
+          output.clear();
+          controller.clock(input, output);
+          return output.size();
+        });
+        System.out.printf("pumps=%-3d %-15s %s  (%s)%n", n, scenario, result,
+            controller.getStatusMessage());
+      }
+    }
+  }
+
+  /**
+   * The scenarios being measured, each of which drives the controller into a given mode.
+   */
+  private enum Scenario {
+    WAITING {
+      @Override
+      Mailbox prepare(MySteamBoilerController controller, SteamBoilerCharacteristics config) {
+        // Physical units never signal they're waiting
+        return readings(config, middle(config), 0);
+      }
+    },
+    READY {
+      @Override
+      Mailbox prepare(MySteamBoilerController controller, SteamBoilerCharacteristics config) {
+        Mailbox waiting = readings(config, middle(config), 0);
+        waiting.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+        clock(controller, waiting);
+        // Physical units never signal they're ready
+        return readings(config, middle(config), 0);
+      }
+    },
+    NORMAL {
+      @Override
+      Mailbox prepare(MySteamBoilerController controller, SteamBoilerCharacteristics config) {
+        handshake(controller, config);
+        return readings(config, middle(config), config.getMaximualSteamRate() / 2);
+      }
+    },
+    DEGRADED {
+      @Override
+      Mailbox prepare(MySteamBoilerController controller, SteamBoilerCharacteristics config) {
+        handshake(controller, config);
+        // Steam sensor obviously broken
+        return readings(config, middle(config), -1);
+      }
+    },
+    RESCUE {
+      @Override
+      Mailbox prepare(MySteamBoilerController controller, SteamBoilerCharacteristics config) {
+        handshake(controller, config);
+        // Level sensor obviously broken
+        return readings(config, -1, config.getMaximualSteamRate() / 2);
+      }
+    },
+    EMERGENCY_STOP {
+      @Override
+      Mailbox prepare(MySteamBoilerController controller, SteamBoilerCharacteristics config) {
+        // Level reading missing altogether
+        Mailbox input = new UnboundedMailbox(100);
+        input.send(new Message(MessageKind.STEAM_v, 0.0));
+        clock(controller, input);
+        return input;
+      }
+    };
+
+    /**
+     * Drive the controller into the required mode.
+     *
+     * @param controller
+     *          The controller being measured.
+     * @param config
+     *          The boiler characteristics.
+     * @return The input to be used repeatedly during measurement.
+     */
+    abstract Mailbox prepare(MySteamBoilerController controller, SteamBoilerCharacteristics config);
+  }
+
+  /**
+   * Take the controller through initialisation into normal mode.
+   */
+  private static void handshake(MySteamBoilerController controller,
+      SteamBoilerCharacteristics config) {
+    Mailbox waiting = readings(config, middle(config), 0);
+    waiting.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    clock(controller, waiting);
+    Mailbox ready = readings(config, middle(config), 0);
+    ready.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+    clock(controller, ready);
+  }
+
+  private static void clock(MySteamBoilerController controller, Mailbox input) {
+    controller.clock(input, new UnboundedMailbox(100));
+  }
+
+  private static double middle(SteamBoilerCharacteristics config) {
+    return (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+  }
+
+  /**
+   * Construct a well-formed transmission from the physical units, with every pump closed.
+   */
+  private static Mailbox readings(SteamBoilerCharacteristics config, double level, double steam) {
+    Mailbox input = new UnboundedMailbox(100);
+    input.send(new Message(MessageKind.LEVEL_v, level));
+    input.send(new Message(MessageKind.STEAM_v, steam));
+    for (int i = 0; i != config.getNumberOfPumps(); ++i) {
+      input.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+      input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+    }
+    return input;
+  }
+}
@@ -0,0 +1,184 @@
+package steam.boiler.bench;
+
+import java.util.Arrays;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Measures the latency of the cycle which trips an emergency stop, for each kind of fault caught by
+ * the controller's pre-scan and for a range of pump counts. Since the emergency stop is terminal,
+ * each trip is made by a fresh copy of a controller in normal mode, and only the call to
+ * {@link MySteamBoilerController#clock(Mailbox, Mailbox)} is timed. The distribution of latencies
+ * is reported up to the worst case measured, alongside that of a well-formed cycle in normal mode
+ * for comparison.
+ *
+ * <p>
+ * Usage: <code>EmergencyBenchmark [pumps...]</code> where the default pump counts are 1, 4, 16 and
+ * 64.
+ * </p>
+ */
+public class EmergencyBenchmark {
+  /**
+   * The number of trips used to warm up before measuring.
+   */
+  private static final int WARMUP = 200_000;
+
+  /**
+   * The number of trips measured.
+   */
+  private static final int TRIPS = 200_000;
+
+  public static void main(String[] args) {
+    int[] pumps = { 1, 4, 16, 64 };
+    if (args.length > 0) {
+      pumps = new int[args.length];
+      for (int i = 0; i != args.length; ++i) {
+        pumps[i] = Integer.parseInt(args[i]);
+      }
+    }
+    for (int n : pumps) {
+      SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+      config = config.setNumberOfPumps(n, config.getPumpCapacity(0));
+      MySteamBoilerController normal = new MySteamBoilerController(config);
+      handshake(normal, config);
+      for (Fault fault : Fault.values()) {
+        Mailbox input = fault.prepare(config);
+        long[] latencies = measure(normal, input, fault != Fault.NONE);
+        System.out.printf("pumps=%-3d %-10s %s%n", n, fault, summarise(latencies));
+      }
+    }
+  }
+
+  /**
+   * The faults being measured, each of which describes the input for a single cycle.
+   */
+  private enum Fault {
+    NONE {
+      @Override
+      Mailbox prepare(SteamBoilerCharacteristics config) {
+        return readings(config, middle(config), 1);
+      }
+    },
+    NO_LEVEL {
+      @Override
+      Mailbox prepare(SteamBoilerCharacteristics config) {
+        return readings(config, middle(config), 0);
+      }
+    },
+    TWO_STEAM {
+      @Override
+      Mailbox prepare(SteamBoilerCharacteristics config) {
+        Mailbox input = readings(config, middle(config), 1);
+        input.send(new Message(MessageKind.STEAM_v, 0.0));
+        return input;
+      }
+    },
+    NO_PUMP {
+      @Override
+      Mailbox prepare(SteamBoilerCharacteristics config) {
+        // Drop the last pump reading, which is found at the very end of the scan
+        Mailbox full = readings(config, middle(config), 1);
+        Mailbox input = new UnboundedMailbox(100);
+        for (int i = 0; i != full.size() - 1; ++i) {
+          input.send(full.read(i));
+        }
+        return input;
+      }
+    },
+    HIGH_LEVEL {
+      @Override
+      Mailbox prepare(SteamBoilerCharacteristics config) {
+        return readings(config, config.getMaximalLimitLevel() + 1, 1);
+      }
+    };
+
+    /**
+     * Construct the input for a single cycle exhibiting this fault.
+     *
+     * @param config
+     *          The boiler characteristics.
+     * @return The input to be used for every measured cycle.
+     */
+    abstract Mailbox prepare(SteamBoilerCharacteristics config);
+  }
+
+  /**
+   * Time a single cycle of many fresh copies of a given controller.
+   *
+   * @param normal
+   *          The controller to be copied.
+   * @param input
+   *          The input for each cycle.
+   * @param trip
+   *          Whether each cycle is expected to trip an emergency stop.
+   * @return The latency (in nanoseconds) of each measured cycle, in ascending order.
+   */
+  private static long[] measure(MySteamBoilerController normal, Mailbox input, boolean trip) {
+    RingMailbox output = new RingMailbox(256);
+    long[] latencies = new long[TRIPS];
+    for (int i = 0; i != WARMUP + TRIPS; ++i) {
+      MySteamBoilerController controller = new MySteamBoilerController(normal);
+      output.clear();
+      long start = System.nanoTime();
+      controller.clock(input, output);
+      long elapsed = System.nanoTime() - start;
+      if (trip != controller.getStatusMessage().equals("EMERGENCY_STOP")) {
+        throw new IllegalStateException("unexpected mode " + controller.getStatusMessage());
+      } else if (i >= WARMUP) {
+        latencies[i - WARMUP] = elapsed;
+      }
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static String summarise(long[] latencies) {
+    return String.format("p50=%6dns p99=%6dns p99.9=%6dns max=%8dns", percentile(latencies, 50),
+        percentile(latencies, 99), percentile(latencies, 99.9), latencies[latencies.length - 1]);
+  }
+
+  private static long percentile(long[] latencies, double p) {
+    int i = (int) Math.ceil((p / 100) * latencies.length) - 1;
+    return latencies[Math.max(0, i)];
+  }
+
+  /**
+   * Take the controller through initialisation into normal mode.
+   */
+  private static void handshake(MySteamBoilerController controller,
+      SteamBoilerCharacteristics config) {
+    Mailbox waiting = readings(config, middle(config), 1);
+    waiting.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    controller.clock(waiting, new UnboundedMailbox(100));
+    Mailbox ready = readings(config, middle(config), 1);
+    ready.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+    controller.clock(ready, new UnboundedMailbox(100));
+  }
+
+  private static double middle(SteamBoilerCharacteristics config) {
+    return (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+  }
+
+  /**
+   * Construct a transmission from the physical units, with every pump closed, and with a given
+   * number of level readings.
+   */
+  private static Mailbox readings(SteamBoilerCharacteristics config, double level, int levels) {
+    Mailbox input = new UnboundedMailbox(100);
+    for (int i = 0; i != levels; ++i) {
+      input.send(new Message(MessageKind.LEVEL_v, level));
+    }
+    input.send(new Message(MessageKind.STEAM_v, 0.0));
+    for (int i = 0; i != config.getNumberOfPumps(); ++i) {
+      input.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+      input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+    }
+    return input;
+  }
+}
@@ -0,0 +1,30 @@
+package steam.boiler.bench;
+
+import steam.boiler.core.LevelEstimator;
+
+/**
+ * Measures the cost of a single update of a {@link LevelEstimator}. Updates alternate between
+ * readings being available and not, so that both the prediction alone and the full correction are
+ * covered. An update should take well under a microsecond, and allocate nothing.
+ *
+ * <p>
+ * Usage: <code>EstimatorBenchmark</code>
+ * </p>
+ */
+public class EstimatorBenchmark {
+  public static void main(String[] args) {
+    Harness harness = new Harness(5, 5, 1_000_000);
+    LevelEstimator estimator = new LevelEstimator(5.0, 1.0, 0.01, 100, 1.0);
+    estimator.update(0, 500, 0);
+    int[] next = { 0 };
+    Harness.Result result = harness.measure(() -> {
+      int i = next[0]++;
+      // Alternate between readings being available and not
+      double reading = (i & 1) == 0 ? 500 - (i & 0xFF) : Double.NaN;
+      estimator.update(10, reading, reading / 100);
+      return (long) estimator.getLevel();
+    });
+    System.out.printf("update %s  (%.1f level variance)%n", result,
+        estimator.getLevelVariance());
+  }
+}
@@ -0,0 +1,120 @@
+package steam.boiler.bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A minimal measurement harness for micro benchmarks. An operation is warmed up and then run for
+ * several measured iterations, reporting the average time and heap allocation per operation. The
+ * allocation figure is measured for the current thread only, which gives the same information as
+ * the allocation rate reported by a GC profiler.
+ */
+public final class Harness {
+  /**
+   * The number of warm-up iterations.
+   */
+  private final int warmups;
+
+  /**
+   * The number of measured iterations.
+   */
+  private final int iterations;
+
+  /**
+   * The number of operations per iteration.
+   */
+  private final int operations;
+
+  /**
+   * Used to measure per-thread allocation.
+   */
+  private final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /**
+   * Construct a harness.
+   *
+   * @param warmups
+   *          The number of warm-up iterations.
+   * @param iterations
+   *          The number of measured iterations.
+   * @param operations
+   *          The number of operations per iteration.
+   */
+  public Harness(int warmups, int iterations, int operations) {
+    this.warmups = warmups;
+    this.iterations = iterations;
+    this.operations = operations;
+  }
+
+  /**
+   * An operation to be measured. The result is accumulated by the harness, so that the JIT cannot
+   * eliminate the operation as dead code.
+   */
+  public interface Operation {
+    /**
+     * Perform the operation once.
+     *
+     * @return Some value derived from the operation.
+     */
+    public long run();
+  }
+
+  /**
+   * The figures obtained from measuring an operation.
+   */
+  public static final class Result {
+    /**
+     * Average time (in ns) per operation.
+     */
+    public final double time;
+
+    /**
+     * Average heap allocation (in bytes) per operation.
+     */
+    public final double allocation;
+
+    Result(double time, double allocation) {
+      this.time = time;
+      this.allocation = allocation;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%10.1f ns/op %8.1f B/op", time, allocation);
+    }
+  }
+
+  /**
+   * Measure a given operation.
+   *
+   * @param operation
+   *          The operation to measure.
+   * @return The measured figures.
+   */
+  public Result measure(Operation operation) {
+    long id = Thread.currentThread().getId();
+    long sink = 0;
+    for (int i = 0; i != warmups; ++i) {
+      for (int j = 0; j != operations; ++j) {
+        sink += operation.run();
+      }
+    }
+    long time = 0;
+    long allocated = 0;
+    for (int i = 0; i != iterations; ++i) {
+      long bytes = threads.getThreadAllocatedBytes(id);
+      long start = System.nanoTime();
+      for (int j = 0; j != operations; ++j) {
+        sink += operation.run();
+      }
+      time += System.nanoTime() - start;
+      allocated += threads.getThreadAllocatedBytes(id) - bytes;
+    }
+    if (sink == 42) {
+      // Practically never happens, but the JIT cannot know that.
+      System.out.print("");
+    }
+    double total = (double) iterations * operations;
+    return new Result(time / total, allocated / total);
+  }
+}
@@ -0,0 +1,141 @@
+package steam.boiler.bench;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import steam.boiler.fleet.BoilerEndpoint;
+import steam.boiler.fleet.FleetHost;
+import steam.boiler.fleet.ThreadPerBoilerHost;
+import steam.boiler.fleet.TickMetrics;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Compares the different ways of hosting a fleet of controllers. Each boiler is driven by a fixed
+ * endpoint which always transmits the same well-formed readings, so that the figures reflect the
+ * cost of scheduling rather than of simulating physical units. The clock period is compressed, so
+ * that a short run covers many cycles per boiler.
+ *
+ * <p>
+ * Usage: <code>HostBenchmark [mode] [boilers...]</code> where mode is one of <code>pool</code>,
+ * <code>platform</code>, <code>virtual</code> or <code>all</code> (the default). By default, fleets
+ * of 10k and 100k boilers are run. Note that virtual threads require JDK 21 or later, and that
+ * 100k platform threads may well exceed the limits of the host.
+ * </p>
+ */
+public class HostBenchmark {
+  /**
+   * The compressed clock period (in ms).
+   */
+  private static final long PERIOD = 1000;
+
+  /**
+   * How long (in ms) each fleet is run for.
+   */
+  private static final long DURATION = 10_000;
+
+  public static void main(String[] args) throws InterruptedException {
+    String mode = args.length > 0 ? args[0] : "all";
+    int[] sizes = { 10_000, 100_000 };
+    if (args.length > 1) {
+      sizes = new int[args.length - 1];
+      for (int i = 1; i != args.length; ++i) {
+        sizes[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+    for (int n : sizes) {
+      if (mode.equals("pool") || mode.equals("all")) {
+        runPool(n);
+      }
+      if (mode.equals("platform") || mode.equals("all")) {
+        runThreadPerBoiler("platform", ThreadPerBoilerHost.platformThreads(), n);
+      }
+      if (mode.equals("virtual") || mode.equals("all")) {
+        try {
+          runThreadPerBoiler("virtual", ThreadPerBoilerHost.virtualThreads(), n);
+        } catch (UnsupportedOperationException e) {
+          System.out.println("virtual: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private static void runPool(int n) throws InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    FleetHost host = new FleetHost(Runtime.getRuntime().availableProcessors(), PERIOD,
+        TimeUnit.MILLISECONDS);
+    for (int i = 0; i != n; ++i) {
+      host.register(config, new FixedEndpoint(config));
+    }
+    long start = System.nanoTime();
+    host.start();
+    long started = System.nanoTime();
+    Thread.sleep(DURATION);
+    host.stop();
+    report("pool", n, started - start, host.getMetrics());
+  }
+
+  private static void runThreadPerBoiler(String name, ThreadFactory factory,
+      int n) throws InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    ThreadPerBoilerHost host = new ThreadPerBoilerHost(factory, PERIOD, TimeUnit.MILLISECONDS);
+    for (int i = 0; i != n; ++i) {
+      host.register(config, new FixedEndpoint(config));
+    }
+    long start = System.nanoTime();
+    try {
+      host.start();
+    } catch (OutOfMemoryError e) {
+      // Typically means the OS refused to create any more threads
+      System.out.println(name + ": failed to start " + n + " threads (" + e.getMessage() + ")");
+      host.stop();
+      return;
+    }
+    long started = System.nanoTime();
+    Thread.sleep(DURATION);
+    host.stop();
+    report(name, n, started - start, host.getMetrics());
+  }
+
+  private static void report(String name, int n, long startup, TickMetrics metrics) {
+    Runtime runtime = Runtime.getRuntime();
+    long heap = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+    double expected = (double) n * DURATION / PERIOD;
+    System.out.printf("%-8s n=%-7d startup=%dms ticks=%d (%.1f%% of schedule) heap=%dMB%n", name, n,
+        TimeUnit.NANOSECONDS.toMillis(startup), metrics.getTicks(),
+        100.0 * metrics.getTicks() / expected, heap);
+    System.out.println("         " + metrics);
+  }
+
+  /**
+   * An endpoint which always transmits the same readings, and discards the controller's commands.
+   */
+  private static class FixedEndpoint implements BoilerEndpoint {
+    private final Message[] readings;
+
+    FixedEndpoint(SteamBoilerCharacteristics config) {
+      int n = config.getNumberOfPumps();
+      readings = new Message[2 + (2 * n)];
+      readings[0] = new Message(MessageKind.LEVEL_v, config.getMinimalNormalLevel());
+      readings[1] = new Message(MessageKind.STEAM_v, 0.0);
+      for (int i = 0; i != n; ++i) {
+        readings[2 + (2 * i)] = new Message(MessageKind.PUMP_STATE_n_b, i, false);
+        readings[3 + (2 * i)] = new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false);
+      }
+    }
+
+    @Override
+    public void transmit(Mailbox incoming) {
+      for (Message m : readings) {
+        incoming.send(m);
+      }
+    }
+
+    @Override
+    public void receive(Mailbox outgoing) {
+      // Commands are ignored.
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package steam.boiler.bench;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import steam.boiler.core.RingMailbox;
+import steam.boiler.journal.CycleJournal;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * Measures the cost of recording a single cycle in a {@link CycleJournal}, for a range of pump
+ * counts. Each cycle holds a typical transmission from the physical units, and a mode message plus
+ * one command per pump from the controller. Segments roll over during measurement, so their cost
+ * is included. Each pump count records 200,000 cycles, which for 64 pumps is about 630MB.
+ *
+ * <p>
+ * Usage: <code>JournalBenchmark [directory]</code>. Segments written to a given directory are left
+ * in place. By default, a temporary directory is used instead, and segments are deleted once each
+ * pump count has been measured.
+ * </p>
+ */
+public class JournalBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    boolean temporary = args.length == 0;
+    Path directory = temporary ? Files.createTempDirectory("journal") : Paths.get(args[0]);
+    Harness harness = new Harness(5, 5, 20_000);
+    try {
+      for (int n : new int[] { 1, 4, 16, 64 }) {
+        RingMailbox input = new RingMailbox(256);
+        RingMailbox output = new RingMailbox(256);
+        input.send(new Message(MessageKind.LEVEL_v, 500.0));
+        input.send(new Message(MessageKind.STEAM_v, 10.0));
+        output.send(new Message(MessageKind.MODE_m, Mode.NORMAL));
+        for (int i = 0; i != n; ++i) {
+          input.send(new Message(MessageKind.PUMP_STATE_n_b, i, true));
+          input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, true));
+          output.send(new Message(MessageKind.OPEN_PUMP_n, i));
+        }
+        try (CycleJournal journal = new CycleJournal(directory)) {
+          Harness.Result result = harness.measure(() -> {
+            journal.record(input, output);
+            return journal.getCycles();
+          });
+          System.out.printf("pumps=%-3d %s  (%d segments)%n", n, result, journal.getSegment() + 1);
+        }
+        if (temporary) {
+          clear(directory);
+        }
+      }
+    } finally {
+      if (temporary) {
+        clear(directory);
+        Files.deleteIfExists(directory);
+      }
+    }
+    if (!temporary) {
+      System.out.println("segments written to " + directory);
+    }
+  }
+
+  /**
+   * Delete every segment in a directory, leaving the directory itself in place.
+   *
+   * @param directory
+   *          The directory to clear.
+   * @throws IOException
+   *           If a segment could not be deleted.
+   */
+  private static void clear(Path directory) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package steam.boiler.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.RingMailbox;
+import steam.boiler.fleet.TickMetrics;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpControllerModels;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.net.Gateway;
+import steam.boiler.net.GatewayClient;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Drives a {@link Gateway} over the loopback interface with traffic from many simulated boilers.
+ * Every boiler has its own physical units, built from the standard template, which are advanced
+ * by one cycle's worth of time before each transmission. Time is compressed by a given speed-up
+ * factor, such that (for example) a factor of 100 runs every boiler's five second cycle in 50ms.
+ * A proportion of boilers have a fault injected at some random cycle, using the standard fault
+ * models, so that the traffic includes failure handling.
+ *
+ * <p>
+ * Boilers are split evenly across several connections, each driven by its own thread which
+ * batches up to {@link #BATCH} boilers per frame. Frames on a connection are spread evenly across
+ * the (compressed) cycle. The end-to-end latency of every frame is recorded, and percentiles
+ * reported at the end of the run. Latency runs from the time a frame was scheduled to be sent, not
+ * the time it actually was, up to receiving the controllers' commands. Hence, when the gateway falls
+ * behind, frames queueing up behind it count against the latency (rather than being omitted).
+ * </p>
+ *
+ * <p>
+ * Usage: <code>LoadGenerator [boilers] [speedup] [seconds] [connections] [faulty%]</code> where
+ * the defaults are 1000 boilers, a speed-up of 100, a 30 second run, 4 connections and 10% faulty
+ * boilers.
+ * </p>
+ */
+public class LoadGenerator {
+  /**
+   * The maximum number of boilers in a single frame.
+   */
+  private static final int BATCH = 256;
+
+  /**
+   * The (uncompressed) cycle time (in ms) of every boiler.
+   */
+  private static final int CYCLE = 5000;
+
+  private static volatile boolean running;
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int boilers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int speedup = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    int connections = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+    int faulty = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    Gateway gateway = new Gateway(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    for (int i = 0; i != boilers; ++i) {
+      gateway.register(config);
+    }
+    gateway.start();
+    long period = (CYCLE * 1_000_000L) / speedup;
+    Random random = new Random(42);
+    Driver[] drivers = new Driver[connections];
+    Thread[] threads = new Thread[connections];
+    for (int c = 0; c != connections; ++c) {
+      int first = (int) (((long) boilers * c) / connections);
+      int last = (int) (((long) boilers * (c + 1)) / connections);
+      drivers[c] = new Driver(gateway.getAddress(), config, first, last, period);
+      for (int i = first; i != last; ++i) {
+        // Spread fault injection over the first minute of simulated time
+        if (random.nextInt(100) < faulty) {
+          drivers[c].inject(i, 1 + random.nextInt(12), Fault.values()[i % Fault.values().length]);
+        }
+      }
+      threads[c] = new Thread(drivers[c], "load-" + c);
+    }
+    running = true;
+    long start = System.nanoTime();
+    for (Thread t : threads) {
+      t.start();
+    }
+    Thread.sleep(seconds * 1000L);
+    running = false;
+    for (Thread t : threads) {
+      t.join();
+    }
+    long elapsed = System.nanoTime() - start;
+    gateway.stop();
+    report(boilers, speedup, elapsed, drivers, gateway.getMetrics());
+  }
+
+  private static void report(int boilers, int speedup, long elapsed, Driver[] drivers,
+      TickMetrics metrics) {
+    int total = 0;
+    long cycles = 0;
+    for (Driver d : drivers) {
+      total += d.count;
+      cycles += d.cycles;
+    }
+    long[] latencies = new long[total];
+    int n = 0;
+    for (Driver d : drivers) {
+      System.arraycopy(d.latencies, 0, latencies, n, d.count);
+      n += d.count;
+    }
+    int failed = 0;
+    for (int c = 0; c != drivers.length; ++c) {
+      Throwable failure = drivers[c].failure;
+      if (failure != null) {
+        failed = failed + 1;
+        System.out.printf("load-%d failed after %d frames: %s%n", c, drivers[c].count, failure);
+      }
+    }
+    if (failed != 0) {
+      System.out.printf("PARTIAL RESULTS: %d of %d connections failed%n", failed, drivers.length);
+    }
+    Arrays.sort(latencies);
+    System.out.printf("boilers=%d speedup=%d: %d frames, %.0f boiler cycles/s%n", boilers, speedup,
+        total, cycles / (elapsed / 1e9));
+    System.out.printf("latency (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+        percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+        percentile(latencies, 99.9), percentile(latencies, 100));
+    System.out.println("gateway: " + metrics);
+  }
+
+  private static double percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return Double.NaN;
+    }
+    int index = (int) Math.ceil((p / 100) * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000.0;
+  }
+
+  /**
+   * Drives a contiguous range of boilers over a single connection.
+   */
+  private static final class Driver implements Runnable {
+    private final GatewayClient client;
+    private final int first;
+    private final PhysicalUnits[] units;
+    private final long period;
+    private final RingMailbox incoming = new RingMailbox(256);
+
+    /**
+     * The cycle at which each boiler has a fault injected (or zero for none).
+     */
+    private final int[] faultAt;
+
+    /**
+     * The fault injected into each boiler.
+     */
+    private final Fault[] faults;
+
+    /**
+     * The end-to-end latency (in ns) of each frame exchanged.
+     */
+    long[] latencies = new long[1024];
+    int count;
+    long cycles;
+
+    /**
+     * Set if this driver stopped early because of an error, in which case its figures are partial.
+     */
+    volatile @Nullable Throwable failure;
+
+    Driver(InetSocketAddress address, SteamBoilerCharacteristics config, int first, int last,
+        long period) throws IOException {
+      this.client = new GatewayClient(address, config.getNumberOfPumps());
+      this.first = first;
+      this.units = new PhysicalUnits[last - first];
+      this.period = period;
+      this.faultAt = new int[units.length];
+      this.faults = new Fault[units.length];
+      for (int i = 0; i != units.length; ++i) {
+        units[i] = new PhysicalUnits.Template(config).construct();
+        units[i].setMode(PhysicalUnits.Mode.WAITING);
+      }
+    }
+
+    void inject(int id, int cycle, Fault fault) {
+      faultAt[id - first] = cycle;
+      faults[id - first] = fault;
+    }
+
+    @Override
+    public void run() {
+      final int frames = (units.length + BATCH - 1) / BATCH;
+      if (frames == 0) {
+        return;
+      }
+      final long spacing = period / frames;
+      long deadline = System.nanoTime();
+      int cycle = 0;
+      try {
+        while (running) {
+          cycle = cycle + 1;
+          for (int f = 0; f != frames && running; ++f) {
+            park(deadline);
+            int from = f * BATCH;
+            int to = Math.min(units.length, from + BATCH);
+            for (int i = from; i < to; ++i) {
+              if (faultAt[i] == cycle) {
+                faults[i].inject(units[i]);
+              }
+              units[i].clock(CYCLE);
+              incoming.clear();
+              units[i].transmit(incoming);
+              client.add(first + i, incoming);
+            }
+            client.exchange((id, outgoing) -> units[id - first].receive(outgoing));
+            // Measured from when the frame should have been sent, to avoid coordinated omission
+            record(System.nanoTime() - deadline);
+            cycles += to - from;
+            deadline += spacing;
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      } finally {
+        try {
+          client.close();
+        } catch (IOException e) {
+          // Already failed, or finished
+        }
+      }
+    }
+
+    private void record(long latency) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = latency;
+    }
+
+    private static void park(long deadline) {
+      long delay;
+      while ((delay = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(delay);
+      }
+    }
+  }
+
+  /**
+   * The faults which can be injected, each of which replaces a single component with a model that
+   * fails to transmit.
+   */
+  private enum Fault {
+    LEVEL_SENSOR {
+      @Override
+      void inject(PhysicalUnits m) {
+        m.setLevelSensor(new LevelSensorModels.TxFailure(m));
+      }
+    },
+    STEAM_SENSOR {
+      @Override
+      void inject(PhysicalUnits m) {
+        m.setSteamSensor(new SteamSensorModels.TxFailure(m));
+      }
+    },
+    PUMP {
+      @Override
+      void inject(PhysicalUnits m) {
+        m.setPump(0, new PumpModels.TxFailureAll(0, 0.0, m));
+      }
+    },
+    PUMP_CONTROLLER {
+      @Override
+      void inject(PhysicalUnits m) {
+        m.setPumpController(0, new PumpControllerModels.TxFailure(0, m));
+      }
+    };
+
+    abstract void inject(PhysicalUnits m);
+  }
+}
@@ -0,0 +1,72 @@
+package steam.boiler.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import steam.boiler.core.LevelPredictor;
+import steam.boiler.core.PumpSelector;
+
+/**
+ * Measures the cost of choosing which pumps to open with a {@link PumpSelector}, for a range of
+ * pump counts. Two kinds of boiler are measured: one whose pumps all have the same capacity (the
+ * usual case), and one whose pumps all differ (the worst case for the search). Each operation
+ * selects pumps for a different target, drawn from a fixed sequence, and the average distance
+ * between the predicted level and its target is reported alongside the figures.
+ *
+ * <p>
+ * Usage: <code>SelectorBenchmark [pumps...]</code> where the default pump counts are 4, 16, 64 and
+ * 256.
+ * </p>
+ */
+public class SelectorBenchmark {
+  /**
+   * The number of distinct targets cycled through.
+   */
+  private static final int TARGETS = 1024;
+
+  public static void main(String[] args) {
+    int[] pumps = { 4, 16, 64, 256 };
+    if (args.length > 0) {
+      pumps = new int[args.length];
+      for (int i = 0; i != args.length; ++i) {
+        pumps[i] = Integer.parseInt(args[i]);
+      }
+    }
+    Harness harness = new Harness(5, 5, 20_000);
+    Random random = new Random(42);
+    for (int n : pumps) {
+      double[] same = new double[n];
+      Arrays.fill(same, 10.0);
+      double[] mixed = new double[n];
+      for (int i = 0; i != n; ++i) {
+        mixed[i] = 5.0 + (random.nextDouble() * 10.0);
+      }
+      measure(harness, "same", new LevelPredictor(same, 10.0), random);
+      measure(harness, "mixed", new LevelPredictor(mixed, 10.0), random);
+    }
+  }
+
+  private static void measure(Harness harness, String name, LevelPredictor predictor,
+      Random random) {
+    final int n = predictor.getNumberOfPumps();
+    PumpSelector selector = new PumpSelector(predictor);
+    boolean[] open = new boolean[n];
+    // Targets range up to the level reached with every pump open
+    double[] targets = new double[TARGETS];
+    for (int i = 0; i != TARGETS; ++i) {
+      targets[i] = random.nextDouble() * predictor.getMaximalLevel(0, 0, false, n);
+    }
+    int[] next = { 0 };
+    double[] error = { 0 };
+    long[] nodes = { 0 };
+    Harness.Result result = harness.measure(() -> {
+      double target = targets[next[0]++ & (TARGETS - 1)];
+      double predicted = selector.select(0, 0, false, target, open);
+      error[0] += Math.abs(predicted - target);
+      nodes[0] += selector.getNodes();
+      return selector.getNodes();
+    });
+    System.out.printf("pumps=%-3d %-5s %s  (%.1f nodes, %.3f error)%n", n, name, result,
+        (double) nodes[0] / next[0], error[0] / next[0]);
+  }
+}
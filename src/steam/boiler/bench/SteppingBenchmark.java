@@ -0,0 +1,70 @@
+package steam.boiler.bench;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Measures the wall-clock cost of simulating a boiler from start up, as done by the long running
+ * tests, when the physical units are advanced in fixed steps of 100ms and when they are advanced
+ * straight to the next transmission (i.e. event driven stepping in the tests). Both simulate the
+ * same period with the same exchanges of messages, so the difference is the cost of clocking the
+ * physical units.
+ *
+ * <p>
+ * Usage: <code>SteppingBenchmark [seconds]</code> where the default is 240s of simulated time.
+ * </p>
+ */
+public class SteppingBenchmark {
+
+  /**
+   * The time (in ms) between two transmissions.
+   */
+  private static final int PERIOD = 5000;
+
+  public static void main(String[] args) {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 240;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    Harness harness = new Harness(3, 5, 20);
+    Harness.Result fixed = harness.measure(() -> simulate(config, seconds, 100));
+    Harness.Result eventDriven = harness.measure(() -> simulate(config, seconds, PERIOD));
+    System.out.printf("fixed         %s%n", fixed);
+    System.out.printf("event driven  %s%n", eventDriven);
+    System.out.printf("speedup       %.1fx%n", fixed.time / eventDriven.time);
+  }
+
+  /**
+   * Simulate a boiler from start up for a given period.
+   *
+   * @param config
+   *          The boiler characteristics.
+   * @param seconds
+   *          The amount of simulated time (in seconds).
+   * @param step
+   *          The time (in ms) by which the physical units are advanced in one go, which must
+   *          divide the time between transmissions.
+   * @return The number of messages sent by the controller, so the work cannot be eliminated.
+   */
+  private static long simulate(SteamBoilerCharacteristics config, int seconds, int step) {
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    int capacity = MySteamBoilerController.mailboxCapacity(config.getNumberOfPumps());
+    RingMailbox input = new RingMailbox(capacity);
+    RingMailbox output = new RingMailbox(capacity);
+    long sent = 0;
+    for (int time = 0; time < seconds * 1000; time += PERIOD) {
+      input.clear();
+      output.clear();
+      model.transmit(input);
+      controller.clock(input, output);
+      model.receive(output);
+      sent += output.size();
+      for (int elapsed = 0; elapsed < PERIOD; elapsed += step) {
+        model.clock(step);
+      }
+    }
+    return sent;
+  }
+}
@@ -0,0 +1,182 @@
+package steam.boiler.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Flight recorder events describing the decisions made by a controller, so production runs can be
+ * profiled under continuous recording. Every event carries the identifier of the boiler, along
+ * with the level and steam readings of the cycle in which it occurred (or <code>NaN</code> where
+ * the reading was missing).
+ *
+ * <p>
+ * Whether each event type is enabled is checked before an event is constructed, so when no
+ * recording is in progress the cost of an emission point is a single field read.
+ * </p>
+ */
+final class ControllerEvents {
+  private static final EventType CLOCK = EventType.getEventType(Clock.class);
+  private static final EventType TRANSITION = EventType.getEventType(Transition.class);
+  private static final EventType FAILURE = EventType.getEventType(Failure.class);
+  private static final EventType COMMAND = EventType.getEventType(Command.class);
+
+  private ControllerEvents() {
+  }
+
+  /**
+   * Begin timing a cycle, if clock events are being recorded.
+   *
+   * @return The event to be passed to {@link #clock} at the end of the cycle, or <code>null</code>
+   *         if clock events are not being recorded.
+   */
+  static @Nullable Clock begin() {
+    if (CLOCK.isEnabled()) {
+      Clock event = new Clock();
+      event.begin();
+      return event;
+    }
+    return null;
+  }
+
+  static void clock(Clock event, int boilerId, String mode, double level, double steam) {
+    event.boilerId = boilerId;
+    event.mode = mode;
+    event.level = level;
+    event.steam = steam;
+    event.commit();
+  }
+
+  static void transition(int boilerId, String from, String to, double level, double steam) {
+    if (TRANSITION.isEnabled()) {
+      Transition event = new Transition();
+      event.boilerId = boilerId;
+      event.from = from;
+      event.to = to;
+      event.level = level;
+      event.steam = steam;
+      event.commit();
+    }
+  }
+
+  static void failure(int boilerId, String reason, double level, double steam) {
+    if (FAILURE.isEnabled()) {
+      Failure event = new Failure();
+      event.boilerId = boilerId;
+      event.reason = reason;
+      event.level = level;
+      event.steam = steam;
+      event.commit();
+    }
+  }
+
+  static void command(int boilerId, String command, int pump, double level, double steam) {
+    if (COMMAND.isEnabled()) {
+      Command event = new Command();
+      event.boilerId = boilerId;
+      event.command = command;
+      event.pump = pump;
+      event.level = level;
+      event.steam = steam;
+      event.commit();
+    }
+  }
+
+  /**
+   * Spans a single call to <code>clock()</code>.
+   */
+  @Name("steam.boiler.Clock")
+  @Label("Controller Cycle")
+  @Category("Steam Boiler")
+  @StackTrace(false)
+  static final class Clock extends Event {
+    @Label("Boiler Id")
+    int boilerId;
+
+    @Label("Mode")
+    @Description("The controller state at the end of the cycle")
+    String mode = "";
+
+    @Label("Level")
+    double level;
+
+    @Label("Steam")
+    double steam;
+  }
+
+  /**
+   * Records the controller moving from one state to another.
+   */
+  @Name("steam.boiler.Transition")
+  @Label("Mode Transition")
+  @Category("Steam Boiler")
+  @StackTrace(false)
+  static final class Transition extends Event {
+    @Label("Boiler Id")
+    int boilerId;
+
+    @Label("From")
+    String from = "";
+
+    @Label("To")
+    String to = "";
+
+    @Label("Level")
+    double level;
+
+    @Label("Steam")
+    double steam;
+  }
+
+  /**
+   * Records a transmission failure detected by the controller.
+   */
+  @Name("steam.boiler.TransmissionFailure")
+  @Label("Transmission Failure")
+  @Category("Steam Boiler")
+  @StackTrace(false)
+  static final class Failure extends Event {
+    @Label("Boiler Id")
+    int boilerId;
+
+    @Label("Reason")
+    String reason = "";
+
+    @Label("Level")
+    double level;
+
+    @Label("Steam")
+    double steam;
+  }
+
+  /**
+   * Records a command sent to a pump or the valve.
+   */
+  @Name("steam.boiler.Command")
+  @Label("Pump or Valve Command")
+  @Category("Steam Boiler")
+  @StackTrace(false)
+  static final class Command extends Event {
+    @Label("Boiler Id")
+    int boilerId;
+
+    @Label("Command")
+    String command = "";
+
+    @Label("Pump")
+    @Description("The pump commanded, or -1 for the valve")
+    int pump;
+
+    @Label("Level")
+    double level;
+
+    @Label("Steam")
+    double steam;
+  }
+}
@@ -0,0 +1,245 @@
+package steam.boiler.core;
+
+import steam.boiler.core.MySteamBoilerController.State;
+
+/**
+ * Instrumentation for a controller, covering how long each call to <code>clock()</code> takes and
+ * how the controller moves between states. Latencies are recorded in a log-linear histogram, which
+ * has a fixed number of buckets and a bounded relative error (of 1/{@value #SUB_BUCKETS}). State
+ * changes are counted in a transition matrix, and the number of cycles spent in each state is
+ * counted as its residency. Since every cycle corresponds to one clock period, residency converts
+ * directly into time.
+ *
+ * <p>
+ * Recording is allocation free, so metrics can be left attached in production. A metrics object
+ * is written by the thread clocking its controller, and can be read safely from any other thread
+ * through {@link #snapshot()}. Snapshots from many controllers can be combined with
+ * {@link #add(ControllerMetrics)}.
+ * </p>
+ */
+public final class ControllerMetrics {
+  /**
+   * The number of bits of precision kept below the leading bit of a value.
+   */
+  private static final int SUB_BITS = 3;
+
+  /**
+   * The number of linear buckets within each power of two.
+   */
+  public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  /**
+   * The number of histogram buckets, covering every non-negative long.
+   */
+  private static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+  private static final int STATES = State.values().length;
+
+  private final long[] buckets = new long[BUCKETS];
+  private long count;
+  private long total;
+  private long max;
+
+  /**
+   * Transition counts, indexed by source state ordinal times the number of states plus target
+   * state ordinal. Cycles which remain in the same state are not counted.
+   */
+  private final long[] transitions = new long[STATES * STATES];
+
+  /**
+   * Number of cycles ending in each state, indexed by state ordinal.
+   */
+  private final long[] residency = new long[STATES];
+
+  /**
+   * Record a single cycle of the controller.
+   *
+   * @param latency
+   *          Time (in ns) taken by the cycle.
+   * @param before
+   *          The state at the start of the cycle.
+   * @param after
+   *          The state at the end of the cycle.
+   */
+  synchronized void record(long latency, State before, State after) {
+    long v = Math.max(0, latency);
+    buckets[bucket(v)]++;
+    count = count + 1;
+    total += v;
+    max = Math.max(max, v);
+    if (before != after) {
+      transitions[(before.ordinal() * STATES) + after.ordinal()]++;
+    }
+    residency[after.ordinal()]++;
+  }
+
+  /**
+   * Take a consistent copy of these metrics.
+   *
+   * @return A copy which is unaffected by subsequent cycles.
+   */
+  public ControllerMetrics snapshot() {
+    ControllerMetrics copy = new ControllerMetrics();
+    copy.add(this);
+    return copy;
+  }
+
+  /**
+   * Add the figures from other metrics into these, for example to aggregate across a fleet.
+   *
+   * @param other
+   *          The metrics to be added.
+   */
+  public void add(ControllerMetrics other) {
+    // Copy first, so the two locks are never held together
+    long[] b;
+    long[] t;
+    long[] r;
+    long c;
+    long tot;
+    long m;
+    synchronized (other) {
+      b = other.buckets.clone();
+      t = other.transitions.clone();
+      r = other.residency.clone();
+      c = other.count;
+      tot = other.total;
+      m = other.max;
+    }
+    synchronized (this) {
+      for (int i = 0; i != BUCKETS; ++i) {
+        buckets[i] += b[i];
+      }
+      for (int i = 0; i != t.length; ++i) {
+        transitions[i] += t[i];
+      }
+      for (int i = 0; i != r.length; ++i) {
+        residency[i] += r[i];
+      }
+      count += c;
+      total += tot;
+      max = Math.max(max, m);
+    }
+  }
+
+  /**
+   * Get the number of cycles recorded.
+   *
+   * @return The number of cycles.
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the mean latency of a cycle.
+   *
+   * @return The mean latency (in ns), or zero if nothing was recorded.
+   */
+  public synchronized double getMeanLatency() {
+    return count == 0 ? 0 : (double) total / count;
+  }
+
+  /**
+   * Get the largest latency of any cycle.
+   *
+   * @return The maximum latency (in ns).
+   */
+  public synchronized long getMaxLatency() {
+    return max;
+  }
+
+  /**
+   * Get an upper bound on a given percentile of cycle latency. This is the upper bound of the
+   * bucket containing the percentile, which is within the histogram's relative error of the exact
+   * value.
+   *
+   * @param percentile
+   *          The percentile required (between 0 and 100).
+   * @return The latency (in ns) which that proportion of cycles did not exceed.
+   */
+  public synchronized long getLatencyPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+    long seen = 0;
+    for (int i = 0; i != BUCKETS; ++i) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return Math.min(max, upperBound(i));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Get the number of times the controller moved from one state to another.
+   *
+   * @param from
+   *          The source state.
+   * @param to
+   *          The target state.
+   * @return The number of transitions.
+   */
+  public synchronized long getTransitions(State from, State to) {
+    return transitions[(from.ordinal() * STATES) + to.ordinal()];
+  }
+
+  /**
+   * Get the number of cycles after which the controller was in a given state.
+   *
+   * @param state
+   *          The state in question.
+   * @return The number of cycles.
+   */
+  public synchronized long getResidency(State state) {
+    return residency[state.ordinal()];
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder r = new StringBuilder();
+    r.append(String.format("%d cycles, latency mean %.0fns p50 %dns p99 %dns max %dns", count,
+        getMeanLatency(), getLatencyPercentile(50), getLatencyPercentile(99), max));
+    for (State s : State.values()) {
+      if (residency[s.ordinal()] != 0) {
+        r.append(", ").append(s).append('=').append(residency[s.ordinal()]);
+      }
+    }
+    return r.toString();
+  }
+
+  /**
+   * Determine the bucket for a given value. Values below {@link #SUB_BUCKETS} each have their own
+   * bucket. Above this, each power of two is split into {@link #SUB_BUCKETS} equal buckets.
+   *
+   * @param v
+   *          A non-negative value.
+   * @return The index of its bucket.
+   */
+  static int bucket(long v) {
+    int exponent = 63 - Long.numberOfLeadingZeros(v);
+    if (exponent < SUB_BITS) {
+      return (int) v;
+    }
+    int shift = exponent - SUB_BITS;
+    return ((shift + 1) << SUB_BITS) + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * Determine the largest value which falls in a given bucket.
+   *
+   * @param bucket
+   *          The index of the bucket.
+   * @return The largest value it holds.
+   */
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BITS) - 1;
+    long base = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    return base + ((1L << shift) - 1);
+  }
+}
@@ -0,0 +1,59 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * A mailbox whose messages can be inspected by position, without constructing a message object
+ * for each. The controller reads incoming mailboxes of this kind through the methods below, rather
+ * than through {@link Mailbox#read(int)}, so that decoding a cycle does not allocate. As for
+ * messages themselves, a parameter should only be read from messages whose kind carries it (see
+ * {@link MessageParameter}).
+ */
+public interface DecodedMailbox extends Mailbox {
+  /**
+   * Get the kind of a given message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its kind.
+   */
+  public MessageKind getKind(int i);
+
+  /**
+   * Get the mode parameter of a given <code>MODE_m</code> message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its mode.
+   */
+  public Mode getModeParameter(int i);
+
+  /**
+   * Get the integer parameter of a given message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its integer parameter.
+   */
+  public int getIntegerParameter(int i);
+
+  /**
+   * Get the boolean parameter of a given message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its boolean parameter.
+   */
+  public boolean getBooleanParameter(int i);
+
+  /**
+   * Get the double parameter of a given message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its double parameter.
+   */
+  public double getDoubleParameter(int i);
+}
@@ -0,0 +1,233 @@
+package steam.boiler.core;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A recursive estimator of the water level and steam rate, in the form of a Kalman filter over
+ * two state variables. Each cycle, the previous estimate is advanced using the flow of the pumps
+ * which were open and the estimated steam rate, and is then corrected by whichever readings are
+ * reliable. When the level sensor has failed, the level is therefore tracked from the pump history
+ * and physics alone, and likewise the steam rate is inferred from successive level readings when
+ * the steam sensor has failed. The whole history is summarised by the estimate and its covariance,
+ * so an update is constant time and allocates nothing.
+ *
+ * <p>
+ * The model assumes the steam rate stays constant over a cycle, except for random drift. Water
+ * drained through the valve is not modelled, so shows up as a discrepancy that is corrected by the
+ * level readings. Readings are only used if the caller judges them reliable, and are otherwise
+ * passed as <code>NaN</code>.
+ * </p>
+ */
+public final class LevelEstimator {
+  /**
+   * The period (in seconds) between two updates.
+   */
+  private final double period;
+
+  /**
+   * Variance of a level reading (in litres squared).
+   */
+  private final double levelNoise;
+
+  /**
+   * Variance of a steam reading (in litres per second, squared).
+   */
+  private final double steamNoise;
+
+  /**
+   * Variance added to the level per cycle, covering flows which are not modelled.
+   */
+  private final double levelDrift;
+
+  /**
+   * Variance added to the steam rate per cycle, covering changes in the rate of boiling.
+   */
+  private final double steamDrift;
+
+  private boolean initialised;
+
+  /**
+   * The estimated level (in litres).
+   */
+  private double level;
+
+  /**
+   * The estimated steam rate (in litres per second).
+   */
+  private double steam;
+
+  /**
+   * The covariance of the estimate, where <code>p00</code> is the variance of the level,
+   * <code>p11</code> that of the steam rate and <code>p01</code> their covariance.
+   */
+  private double p00;
+  private double p01;
+  private double p11;
+
+  /**
+   * Construct an estimator for a given boiler, with noise figures derived from its
+   * characteristics.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   */
+  public LevelEstimator(SteamBoilerCharacteristics configuration) {
+    this(LevelPredictor.CYCLE, 1.0, variance(0.01 * configuration.getMaximualSteamRate()),
+        variance(0.01 * configuration.getCapacity()),
+        variance(0.1 * configuration.getMaximualSteamRate()));
+  }
+
+  /**
+   * Construct an estimator.
+   *
+   * @param period
+   *          The period (in seconds) between two updates.
+   * @param levelNoise
+   *          Variance of a level reading.
+   * @param steamNoise
+   *          Variance of a steam reading.
+   * @param levelDrift
+   *          Variance added to the level per cycle.
+   * @param steamDrift
+   *          Variance added to the steam rate per cycle.
+   */
+  public LevelEstimator(double period, double levelNoise, double steamNoise, double levelDrift,
+      double steamDrift) {
+    if (!(period > 0)) {
+      throw new IllegalArgumentException("invalid period: " + period);
+    } else if (!(levelNoise > 0 && steamNoise > 0 && levelDrift >= 0 && steamDrift >= 0)) {
+      throw new IllegalArgumentException("invalid noise");
+    }
+    this.period = period;
+    this.levelNoise = levelNoise;
+    this.steamNoise = steamNoise;
+    this.levelDrift = levelDrift;
+    this.steamDrift = steamDrift;
+  }
+
+  /**
+   * Continue from exactly the same estimate as another estimator, which should have the same
+   * parameters.
+   *
+   * @param other
+   *          The estimator to be copied.
+   */
+  void copyFrom(LevelEstimator other) {
+    this.initialised = other.initialised;
+    this.level = other.level;
+    this.steam = other.steam;
+    this.p00 = other.p00;
+    this.p01 = other.p01;
+    this.p11 = other.p11;
+  }
+
+  /**
+   * Update the estimate for the latest cycle. The estimate starts from the first reliable level
+   * reading, with the steam rate assumed to be zero until read or inferred.
+   *
+   * @param inflow
+   *          The total flow (in litres per second) of the pumps open during the last cycle.
+   * @param levelReading
+   *          The level reading for this cycle, or <code>NaN</code> if unreliable.
+   * @param steamReading
+   *          The steam reading for this cycle, or <code>NaN</code> if unreliable.
+   */
+  public void update(double inflow, double levelReading, double steamReading) {
+    if (!initialised) {
+      if (Double.isNaN(levelReading)) {
+        return;
+      }
+      initialised = true;
+      level = levelReading;
+      steam = Double.isNaN(steamReading) ? 0 : steamReading;
+      p00 = levelNoise;
+      p01 = 0;
+      p11 = Double.isNaN(steamReading) ? steamDrift + steamNoise : steamNoise;
+      return;
+    }
+    // Predict: level changes by inflow less steam over the period, steam stays the same
+    final double dt = period;
+    level = Math.max(0, level + (dt * (inflow - steam)));
+    p00 += (dt * ((dt * p11) - (2 * p01))) + levelDrift;
+    p01 -= dt * p11;
+    p11 += steamDrift;
+    // Correct with each reliable reading in turn
+    if (!Double.isNaN(levelReading)) {
+      double s = p00 + levelNoise;
+      double k0 = p00 / s;
+      double k1 = p01 / s;
+      double y = levelReading - level;
+      level += k0 * y;
+      steam += k1 * y;
+      p11 -= k1 * p01;
+      p01 -= k0 * p01;
+      p00 -= k0 * p00;
+    }
+    if (!Double.isNaN(steamReading)) {
+      double s = p11 + steamNoise;
+      double k0 = p01 / s;
+      double k1 = p11 / s;
+      double y = steamReading - steam;
+      level += k0 * y;
+      steam += k1 * y;
+      p00 -= k0 * p01;
+      p01 -= k1 * p01;
+      p11 -= k1 * p11;
+    }
+  }
+
+  /**
+   * Check whether a level reading has been received, such that there is an estimate.
+   *
+   * @return <code>true</code> if the estimate is meaningful.
+   */
+  public boolean isInitialised() {
+    return initialised;
+  }
+
+  /**
+   * Get the estimated water level.
+   *
+   * @return The level (in litres), or <code>NaN</code> if there is no estimate yet.
+   */
+  public double getLevel() {
+    return initialised ? level : Double.NaN;
+  }
+
+  /**
+   * Get the estimated steam rate.
+   *
+   * @return The steam rate (in litres per second), or <code>NaN</code> if there is no estimate
+   *         yet.
+   */
+  public double getSteam() {
+    return initialised ? steam : Double.NaN;
+  }
+
+  /**
+   * Get the variance of the estimated water level, which grows for as long as the level sensor is
+   * unreliable.
+   *
+   * @return The variance (in litres squared), or <code>NaN</code> if there is no estimate yet.
+   */
+  public double getLevelVariance() {
+    return initialised ? p00 : Double.NaN;
+  }
+
+  /**
+   * Get the variance of the estimated steam rate.
+   *
+   * @return The variance, or <code>NaN</code> if there is no estimate yet.
+   */
+  public double getSteamVariance() {
+    return initialised ? p11 : Double.NaN;
+  }
+
+  /**
+   * Determine the variance for a given standard deviation, which is kept strictly positive so
+   * that degenerate characteristics cannot stall the filter.
+   */
+  private static double variance(double deviation) {
+    return Math.max(1e-6, deviation * deviation);
+  }
+}
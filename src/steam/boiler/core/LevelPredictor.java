@@ -0,0 +1,275 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Predicts the water level at the end of a cycle, for every possible combination of open pumps.
+ * For a given number <code>k</code> of open pumps, the total flow is smallest when the
+ * <code>k</code> weakest pumps are open and largest when the <code>k</code> strongest are. Thus,
+ * after sorting the pump capacities once, the envelope of every <code>k</code>-combination is
+ * given by a prefix and suffix sum. Both envelopes increase with <code>k</code>, so the number of
+ * pumps needed to keep the level within some bound is found by binary search. Hence, a prediction
+ * costs <code>O(log n)</code> per cycle rather than enumerating all <code>2^n</code> combinations.
+ *
+ * <p>
+ * Predictions assume water leaves the boiler at the measured steam rate throughout the cycle,
+ * along with the valve's evacuation rate when the valve is open. A predictor holds no per-cycle
+ * state, so can be shared between all controllers of boilers with the same characteristics.
+ * </p>
+ */
+public final class LevelPredictor {
+  /**
+   * The length (in seconds) of a single cycle.
+   */
+  public static final double CYCLE = 5.0;
+
+  /**
+   * Pump capacities (in litres per second) in ascending order.
+   */
+  private final double[] capacities;
+
+  /**
+   * Pump numbers in ascending order of capacity, such that pump <code>order[i]</code> has capacity
+   * <code>capacities[i]</code>.
+   */
+  private final int[] order;
+
+  /**
+   * The smallest total flow from <code>k</code> open pumps, indexed by <code>k</code>.
+   */
+  private final double[] low;
+
+  /**
+   * The largest total flow from <code>k</code> open pumps, indexed by <code>k</code>.
+   */
+  private final double[] high;
+
+  /**
+   * The rate (in litres per second) at which water is evacuated when the valve is open.
+   */
+  private final double valveRate;
+
+  /**
+   * Construct a predictor for the pumps of a given boiler.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   * @param valveRate
+   *          The rate (in litres per second) at which water is evacuated when the valve is open.
+   */
+  public LevelPredictor(SteamBoilerCharacteristics configuration, double valveRate) {
+    this(capacities(configuration), valveRate);
+  }
+
+  /**
+   * Construct a predictor for a given set of pumps.
+   *
+   * @param capacities
+   *          The capacity (in litres per second) of each pump, indexed by pump number.
+   * @param valveRate
+   *          The rate (in litres per second) at which water is evacuated when the valve is open.
+   */
+  public LevelPredictor(double[] capacities, double valveRate) {
+    final int n = capacities.length;
+    Integer[] pumps = new Integer[n];
+    for (int i = 0; i != n; ++i) {
+      if (!(capacities[i] >= 0)) {
+        throw new IllegalArgumentException("invalid capacity for pump " + i);
+      }
+      pumps[i] = i;
+    }
+    Arrays.sort(pumps, (a, b) -> Double.compare(capacities[a], capacities[b]));
+    this.capacities = new double[n];
+    this.order = new int[n];
+    this.low = new double[n + 1];
+    this.high = new double[n + 1];
+    for (int i = 0; i != n; ++i) {
+      this.order[i] = pumps[i];
+      this.capacities[i] = capacities[pumps[i]];
+    }
+    for (int k = 1; k <= n; ++k) {
+      low[k] = low[k - 1] + this.capacities[k - 1];
+      high[k] = high[k - 1] + this.capacities[n - k];
+    }
+    this.valveRate = valveRate;
+  }
+
+  /**
+   * Get the number of pumps covered by this predictor.
+   *
+   * @return The number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return capacities.length;
+  }
+
+  /**
+   * Get the pump with a given rank by capacity.
+   *
+   * @param rank
+   *          The rank, where zero is the pump with the smallest capacity.
+   * @return The pump number.
+   */
+  public int getPump(int rank) {
+    return order[rank];
+  }
+
+  /**
+   * Get the capacity of the pump with a given rank.
+   *
+   * @param rank
+   *          The rank, where zero is the pump with the smallest capacity.
+   * @return The capacity (in litres per second).
+   */
+  public double getCapacity(int rank) {
+    return capacities[rank];
+  }
+
+  /**
+   * Get the smallest total flow of any <code>k</code> pumps.
+   *
+   * @param k
+   *          The number of open pumps.
+   * @return The flow (in litres per second).
+   */
+  public double getMinimalFlow(int k) {
+    return low[k];
+  }
+
+  /**
+   * Get the largest total flow of any <code>k</code> pumps.
+   *
+   * @param k
+   *          The number of open pumps.
+   * @return The flow (in litres per second).
+   */
+  public double getMaximalFlow(int k) {
+    return high[k];
+  }
+
+  /**
+   * Predict the level at the end of a cycle for a given total pump flow.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The measured steam rate (in litres per second).
+   * @param valveOpen
+   *          Whether the valve is open.
+   * @param flow
+   *          The total flow (in litres per second) of the open pumps.
+   * @return The predicted level.
+   */
+  public double predict(double level, double steam, boolean valveOpen, double flow) {
+    return level + (CYCLE * (flow - outflow(steam, valveOpen)));
+  }
+
+  /**
+   * Predict the lowest level at the end of a cycle for any combination of <code>k</code> pumps.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The measured steam rate (in litres per second).
+   * @param valveOpen
+   *          Whether the valve is open.
+   * @param k
+   *          The number of open pumps.
+   * @return The lowest predicted level.
+   */
+  public double getMinimalLevel(double level, double steam, boolean valveOpen, int k) {
+    return predict(level, steam, valveOpen, low[k]);
+  }
+
+  /**
+   * Predict the highest level at the end of a cycle for any combination of <code>k</code> pumps.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The measured steam rate (in litres per second).
+   * @param valveOpen
+   *          Whether the valve is open.
+   * @param k
+   *          The number of open pumps.
+   * @return The highest predicted level.
+   */
+  public double getMaximalLevel(double level, double steam, boolean valveOpen, int k) {
+    return predict(level, steam, valveOpen, high[k]);
+  }
+
+  /**
+   * Determine the fewest pumps which guarantee the level stays at or above a given bound,
+   * whichever pumps are opened.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The measured steam rate (in litres per second).
+   * @param valveOpen
+   *          Whether the valve is open.
+   * @param bound
+   *          The lowest acceptable level at the end of the cycle.
+   * @return The number of pumps, or one more than the number of pumps if even opening every pump
+   *         cannot guarantee this.
+   */
+  public int getMinimalPumps(double level, double steam, boolean valveOpen, double bound) {
+    // Find the smallest k with low[k] >= needed
+    double needed = ((bound - level) / CYCLE) + outflow(steam, valveOpen);
+    int lo = 0;
+    int hi = low.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (low[mid] >= needed) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Determine the most pumps which guarantee the level stays at or below a given bound, whichever
+   * pumps are opened.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The measured steam rate (in litres per second).
+   * @param valveOpen
+   *          Whether the valve is open.
+   * @param bound
+   *          The highest acceptable level at the end of the cycle.
+   * @return The number of pumps, or -1 if even closing every pump cannot guarantee this.
+   */
+  public int getMaximalPumps(double level, double steam, boolean valveOpen, double bound) {
+    // Find the largest k with high[k] <= allowed
+    double allowed = ((bound - level) / CYCLE) + outflow(steam, valveOpen);
+    int lo = 0;
+    int hi = high.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (high[mid] > allowed) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo - 1;
+  }
+
+  private double outflow(double steam, boolean valveOpen) {
+    return valveOpen ? steam + valveRate : steam;
+  }
+
+  private static double[] capacities(SteamBoilerCharacteristics configuration) {
+    double[] capacities = new double[configuration.getNumberOfPumps()];
+    for (int i = 0; i != capacities.length; ++i) {
+      capacities[i] = configuration.getPumpCapacity(i);
+    }
+    return capacities;
+  }
+}
@@ -0,0 +1,171 @@
+package steam.boiler.core;
+
+import java.util.HashMap;
+
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * A shared set of preconstructed messages. Messages are immutable values, so there is no need to
+ * construct a fresh one whenever a message is sent. Instead, every message whose parameter ranges
+ * over a small finite set is built exactly once here. This covers parameterless kinds (e.g.
+ * <code>PROGRAM_READY</code>), <code>MODE_m</code> for each mode, and the pump numbered kinds (e.g.
+ * <code>OPEN_PUMP_n</code>) for each pump. Messages carrying a double parameter cannot be cached.
+ */
+public final class MessageCache {
+  /**
+   * Caches already built, indexed by number of pumps. These are shared between all controllers
+   * with the same number of pumps.
+   */
+  private static final HashMap<Integer, MessageCache> CACHES = new HashMap<>();
+
+  /**
+   * The number of pumps covered by this cache.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * Messages without parameter, indexed by kind ordinal (or <code>null</code> for kinds which
+   * have a parameter).
+   */
+  private final Message[] simple;
+
+  /**
+   * <code>MODE_m</code> messages, indexed by mode ordinal.
+   */
+  private final Message[] modes;
+
+  /**
+   * Pump numbered messages, indexed by kind ordinal and then pump number.
+   */
+  private final Message[][] pumps;
+
+  /**
+   * Pump numbered messages with boolean parameter, indexed by kind ordinal and then by pump number
+   * times two (plus one for <code>true</code>).
+   */
+  private final Message[][] pumpStates;
+
+  /**
+   * Get the message cache for a given number of pumps, constructing it if necessary.
+   *
+   * @param numberOfPumps
+   *          The number of pumps in the boiler.
+   * @return A cache covering every pump in the boiler.
+   */
+  public static synchronized MessageCache forPumps(int numberOfPumps) {
+    MessageCache cache = CACHES.get(numberOfPumps);
+    if (cache == null) {
+      cache = new MessageCache(numberOfPumps);
+      CACHES.put(numberOfPumps, cache);
+    }
+    return cache;
+  }
+
+  private MessageCache(int numberOfPumps) {
+    MessageKind[] kinds = MessageKind.values();
+    this.numberOfPumps = numberOfPumps;
+    this.simple = new Message[kinds.length];
+    this.pumps = new Message[kinds.length][];
+    this.pumpStates = new Message[kinds.length][];
+    this.modes = new Message[Mode.values().length];
+    for (MessageKind kind : kinds) {
+      int k = kind.ordinal();
+      switch (MessageParameter.of(kind)) {
+        case NONE:
+          simple[k] = new Message(kind);
+          break;
+        case INTEGER:
+          pumps[k] = new Message[numberOfPumps];
+          for (int i = 0; i != numberOfPumps; ++i) {
+            pumps[k][i] = new Message(kind, i);
+          }
+          break;
+        case INTEGER_BOOLEAN:
+          pumpStates[k] = new Message[numberOfPumps * 2];
+          for (int i = 0; i != numberOfPumps; ++i) {
+            pumpStates[k][i * 2] = new Message(kind, i, false);
+            pumpStates[k][(i * 2) + 1] = new Message(kind, i, true);
+          }
+          break;
+        default:
+          // Cannot be cached here
+      }
+    }
+    for (Mode mode : Mode.values()) {
+      modes[mode.ordinal()] = new Message(MessageKind.MODE_m, mode);
+    }
+  }
+
+  /**
+   * Get the number of pumps covered by this cache.
+   *
+   * @return The number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return numberOfPumps;
+  }
+
+  /**
+   * Get a message without parameter (e.g. <code>VALVE</code>).
+   *
+   * @param kind
+   *          The kind of message required.
+   * @return The shared message.
+   */
+  public Message get(MessageKind kind) {
+    Message m = simple[kind.ordinal()];
+    if (m == null) {
+      throw new IllegalArgumentException("message kind requires a parameter: " + kind);
+    }
+    return m;
+  }
+
+  /**
+   * Get a <code>MODE_m</code> message.
+   *
+   * @param mode
+   *          The mode parameter.
+   * @return The shared message.
+   */
+  public Message mode(Mode mode) {
+    return modes[mode.ordinal()];
+  }
+
+  /**
+   * Get a message parameterised by a pump number (e.g. <code>OPEN_PUMP_n</code>).
+   *
+   * @param kind
+   *          The kind of message required.
+   * @param pump
+   *          The pump number parameter.
+   * @return The shared message.
+   */
+  public Message get(MessageKind kind, int pump) {
+    Message[] ms = pumps[kind.ordinal()];
+    if (ms == null) {
+      throw new IllegalArgumentException("message kind requires a pump number: " + kind);
+    }
+    return ms[pump];
+  }
+
+  /**
+   * Get a message parameterised by a pump number and boolean (e.g. <code>PUMP_STATE_n_b</code>).
+   *
+   * @param kind
+   *          The kind of message required.
+   * @param pump
+   *          The pump number parameter.
+   * @param b
+   *          The boolean parameter.
+   * @return The shared message.
+   */
+  public Message get(MessageKind kind, int pump, boolean b) {
+    Message[] ms = pumpStates[kind.ordinal()];
+    if (ms == null) {
+      throw new IllegalArgumentException("message kind requires a pump number and boolean: " + kind);
+    }
+    return ms[(pump * 2) + (b ? 1 : 0)];
+  }
+}
@@ -0,0 +1,174 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * A per-cycle view of an incoming mailbox which buckets messages by their kind. The mailbox is
+ * scanned exactly once per cycle, after which all messages of a given kind can be looked up
+ * directly. Buckets hold the position of each message in the mailbox, and parameters are read
+ * through {@link DecodedMailbox}, so no message objects are needed. The bucket arrays are owned by
+ * the index and reused from one cycle to the next. Indexing can be restricted to a mask of kinds,
+ * where bit <code>k</code> of the mask corresponds to the kind with ordinal <code>k</code>, so that
+ * kinds nobody will look at are skipped.
+ */
+final class MessageIndex {
+  /**
+   * The number of distinct message kinds.
+   */
+  private static final int KINDS = MessageKind.values().length;
+
+  /**
+   * Mask including every kind of message.
+   */
+  static final long ALL = KINDS == Long.SIZE ? -1L : (1L << KINDS) - 1;
+
+  /**
+   * Positions in the mailbox of messages of each kind, indexed by kind ordinal. Only the first
+   * <code>counts[k]</code> entries of bucket <code>k</code> are valid for the current cycle.
+   */
+  private final int[][] buckets = new int[KINDS][];
+
+  /**
+   * Number of messages of each kind seen in the current cycle, indexed by kind ordinal.
+   */
+  private final int[] counts = new int[KINDS];
+
+  /**
+   * The mailbox indexed in the current cycle.
+   */
+  private DecodedMailbox mailbox = new MessageView();
+
+  /**
+   * Construct an empty index.
+   *
+   * @param capacity
+   *          The initial capacity of each bucket.
+   */
+  MessageIndex(int capacity) {
+    for (int i = 0; i != KINDS; ++i) {
+      buckets[i] = new int[capacity];
+    }
+  }
+
+  /**
+   * Rebuild this index from a given mailbox. Any messages from the previous cycle are forgotten.
+   *
+   * @param incoming
+   *          The mailbox to index.
+   */
+  void index(DecodedMailbox incoming) {
+    index(incoming, ALL);
+  }
+
+  /**
+   * Rebuild this index from a given mailbox, keeping only messages of the given kinds. Messages of
+   * any other kind are skipped without being bucketed, and are counted as absent.
+   *
+   * @param incoming
+   *          The mailbox to index.
+   * @param kinds
+   *          Mask of the kinds to keep (see {@link #mask(MessageKind...)}).
+   */
+  void index(DecodedMailbox incoming, long kinds) {
+    Arrays.fill(counts, 0);
+    this.mailbox = incoming;
+    for (int i = 0; i != incoming.size(); ++i) {
+      int k = incoming.getKind(i).ordinal();
+      if ((kinds & (1L << k)) == 0) {
+        continue;
+      }
+      int[] bucket = buckets[k];
+      int n = counts[k];
+      if (n == bucket.length) {
+        // Only happens if a mailbox is larger than anything seen before.
+        bucket = Arrays.copyOf(bucket, (n * 2) + 1);
+        buckets[k] = bucket;
+      }
+      bucket[n] = i;
+      counts[k] = n + 1;
+    }
+  }
+
+  /**
+   * Construct a mask of message kinds, for use with {@link #index(DecodedMailbox, long)}.
+   *
+   * @param kinds
+   *          The kinds to include.
+   * @return A mask with the bit for each kind's ordinal set.
+   */
+  static long mask(MessageKind... kinds) {
+    long mask = 0;
+    for (MessageKind kind : kinds) {
+      mask |= 1L << kind.ordinal();
+    }
+    return mask;
+  }
+
+  /**
+   * Determine how many messages of a given kind were in the indexed mailbox.
+   *
+   * @param kind
+   *          The kind of message to look for.
+   * @return The number of matching messages.
+   */
+  int count(MessageKind kind) {
+    return counts[kind.ordinal()];
+  }
+
+  /**
+   * Get the integer parameter of the <code>i</code>th message of a given kind.
+   *
+   * @param kind
+   *          The kind of message to look for.
+   * @param i
+   *          The position of the message amongst those of the same kind.
+   * @return Its integer parameter.
+   */
+  int getIntegerParameter(MessageKind kind, int i) {
+    return mailbox.getIntegerParameter(position(kind, i));
+  }
+
+  /**
+   * Get the boolean parameter of the <code>i</code>th message of a given kind.
+   *
+   * @param kind
+   *          The kind of message to look for.
+   * @param i
+   *          The position of the message amongst those of the same kind.
+   * @return Its boolean parameter.
+   */
+  boolean getBooleanParameter(MessageKind kind, int i) {
+    return mailbox.getBooleanParameter(position(kind, i));
+  }
+
+  /**
+   * Get the double parameter of the only message of a given kind.
+   *
+   * @param kind
+   *          The kind of message to look for.
+   * @return Its double parameter, or <code>NaN</code> if there was not exactly one match.
+   */
+  double only(MessageKind kind) {
+    int k = kind.ordinal();
+    return counts[k] == 1 ? mailbox.getDoubleParameter(buckets[k][0]) : Double.NaN;
+  }
+
+  /**
+   * Get the position in the mailbox of the <code>i</code>th message of a given kind.
+   *
+   * @param kind
+   *          The kind of message to look for.
+   * @param i
+   *          The position of the message amongst those of the same kind.
+   * @return The position of the message in the mailbox.
+   */
+  private int position(MessageKind kind, int i) {
+    int k = kind.ordinal();
+    if (i < 0 || i >= counts[k]) {
+      throw new IndexOutOfBoundsException("invalid message index");
+    }
+    return buckets[k][i];
+  }
+}
@@ -0,0 +1,72 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * Identifies the kind of parameter carried by a message. This follows the naming convention used
+ * for {@link MessageKind}, where the suffix of a kind's name determines its parameter (e.g.
+ * <code>MODE_m</code> carries a mode, <code>OPEN_PUMP_n</code> a pump number, and so on).
+ */
+public enum MessageParameter {
+  /**
+   * No parameter (e.g. <code>PROGRAM_READY</code>).
+   */
+  NONE,
+  /**
+   * A mode parameter (e.g. <code>MODE_m</code>).
+   */
+  MODE,
+  /**
+   * An integer parameter (e.g. <code>OPEN_PUMP_n</code>).
+   */
+  INTEGER,
+  /**
+   * A boolean parameter.
+   */
+  BOOLEAN,
+  /**
+   * A double parameter (e.g. <code>LEVEL_v</code>).
+   */
+  DOUBLE,
+  /**
+   * An integer and boolean parameter pair (e.g. <code>PUMP_STATE_n_b</code>).
+   */
+  INTEGER_BOOLEAN;
+
+  /**
+   * Parameter of each message kind, indexed by kind ordinal.
+   */
+  private static final MessageParameter[] KINDS = new MessageParameter[MessageKind.values().length];
+
+  static {
+    for (MessageKind kind : MessageKind.values()) {
+      String name = kind.name();
+      MessageParameter parameter;
+      if (name.endsWith("_n_b")) {
+        parameter = INTEGER_BOOLEAN;
+      } else if (name.endsWith("_m")) {
+        parameter = MODE;
+      } else if (name.endsWith("_n")) {
+        parameter = INTEGER;
+      } else if (name.endsWith("_b")) {
+        parameter = BOOLEAN;
+      } else if (name.endsWith("_v")) {
+        parameter = DOUBLE;
+      } else {
+        parameter = NONE;
+      }
+      KINDS[kind.ordinal()] = parameter;
+    }
+  }
+
+  /**
+   * Determine the parameter carried by messages of a given kind.
+   *
+   * @param kind
+   *          The message kind in question.
+   * @return The parameter carried by that kind.
+   */
+  public static MessageParameter of(MessageKind kind) {
+    return KINDS[kind.ordinal()];
+  }
+}
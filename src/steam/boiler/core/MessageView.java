@@ -0,0 +1,79 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * Presents an ordinary mailbox as a {@link DecodedMailbox}, by reading each message and then its
+ * parameter. This allows the controller to read every incoming mailbox in the same way. A view is
+ * owned by a single controller, and is pointed at each cycle's mailbox in turn.
+ */
+final class MessageView implements DecodedMailbox {
+  /**
+   * The mailbox currently being viewed.
+   */
+  private Mailbox mailbox = new RingMailbox(1);
+
+  /**
+   * Present a given mailbox as a decoded mailbox. Mailboxes which are already decoded are returned
+   * as is. Otherwise, this view is pointed at the mailbox, replacing whichever it was viewing.
+   *
+   * @param incoming
+   *          The mailbox to be read.
+   * @return A decoded mailbox holding the same messages.
+   */
+  DecodedMailbox of(Mailbox incoming) {
+    if (incoming instanceof DecodedMailbox) {
+      return (DecodedMailbox) incoming;
+    }
+    this.mailbox = incoming;
+    return this;
+  }
+
+  @Override
+  public void send(Message message) {
+    mailbox.send(message);
+  }
+
+  @Override
+  public Message read(int i) {
+    return mailbox.read(i);
+  }
+
+  @Override
+  public int size() {
+    return mailbox.size();
+  }
+
+  @Override
+  public MessageKind getKind(int i) {
+    return mailbox.read(i).getKind();
+  }
+
+  @Override
+  public Mode getModeParameter(int i) {
+    return mailbox.read(i).getModeParameter();
+  }
+
+  @Override
+  public int getIntegerParameter(int i) {
+    return mailbox.read(i).getIntegerParameter();
+  }
+
+  @Override
+  public boolean getBooleanParameter(int i) {
+    return mailbox.read(i).getBooleanParameter();
+  }
+
+  @Override
+  public double getDoubleParameter(int i) {
+    return mailbox.read(i).getDoubleParameter();
+  }
+
+  @Override
+  public String toString() {
+    return mailbox.toString();
+  }
+}
@@ -1,24 +1,83 @@
 package steam.boiler.core;
 
+import java.util.Arrays;
+
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
 import steam.boiler.model.SteamBoilerController;
 import steam.boiler.util.Mailbox;
 import steam.boiler.util.SteamBoilerCharacteristics;
-import steam.boiler.util.Mailbox.Message;
 import steam.boiler.util.Mailbox.MessageKind;
 
 public class MySteamBoilerController implements SteamBoilerController {
 
   /**
-   * Captures the various modes in which the controller can operate.
+   * Captures the various modes in which the controller can operate. Each mode declares the kinds
+   * of message it consumes, and the handler which processes a cycle in that mode. Readings of the
+   * level, steam and pumps are consumed in every mode, since they are checked every cycle. Modes in
+   * which the boiler is operating under control also declare that the level must stay within its
+   * limits.
    *
    * @author David J. Pearce
    *
    */
-  private enum State {
-        WAITING, READY, NORMAL, DEGRADED, RESCUE, EMERGENCY_STOP
+  public enum State {
+    WAITING(false, (c, outgoing) -> c.handleWaiting(outgoing), MessageKind.STEAM_BOILER_WAITING,
+        MessageKind.PHYSICAL_UNITS_READY),
+    READY(false, (c, outgoing) -> c.doReady(outgoing), MessageKind.PHYSICAL_UNITS_READY),
+    NORMAL(true, Handler.NONE),
+    DEGRADED(true, Handler.NONE),
+    // The level sensor has failed, so its readings say nothing about the limits
+    RESCUE(false, Handler.NONE),
+    EMERGENCY_STOP(false, Handler.NONE);
+
+    /**
+     * Whether a level reading beyond the limits requires an emergency stop in this mode.
+     */
+    private final boolean limited;
+
+    /**
+     * Processes a cycle in this mode, once the incoming messages have been indexed and checked.
+     */
+    private final Handler handler;
+
+    /**
+     * Mask of the message kinds consumed in this mode (see {@link MessageIndex#mask}).
+     */
+    private final long kinds;
+
+    private State(boolean limited, Handler handler, MessageKind... kinds) {
+      this.limited = limited;
+      this.handler = handler;
+      this.kinds = MessageIndex.mask(kinds) | MessageIndex.mask(MessageKind.LEVEL_v,
+          MessageKind.STEAM_v, MessageKind.PUMP_STATE_n_b, MessageKind.PUMP_CONTROL_STATE_n_b);
+    }
+
+    /**
+     * Check whether messages of a given kind are consumed in this mode.
+     *
+     * @param kind
+     *          The kind of message.
+     * @return <code>true</code> if such messages are looked at in this mode.
+     */
+    public boolean consumes(MessageKind kind) {
+      return (kinds & (1L << kind.ordinal())) != 0;
+    }
+  }
+
+  /**
+   * Processes a single cycle of a controller in a given mode.
+   */
+  private interface Handler {
+    /**
+     * A handler for modes which do nothing beyond the checks common to every cycle.
+     */
+    Handler NONE = (c, outgoing) -> {
+      // Nothing to do
+    };
+
+    void handle(MySteamBoilerController controller, Mailbox outgoing);
   }
 
   /**
@@ -42,6 +101,72 @@ public class MySteamBoilerController implements SteamBoilerController {
    */
   private boolean valveOpen = false;
 
+  /**
+   * Presents incoming mailboxes which are not already decoded as such.
+   */
+  private final MessageView view = new MessageView();
+
+  /**
+   * Incoming messages for the current cycle, bucketed by kind.
+   */
+  private final MessageIndex messages;
+
+  /**
+   * Pump readings for the current cycle, decoded from the incoming messages.
+   */
+  private final PumpStates pumps;
+
+  /**
+   * Preconstructed outgoing messages, shared with all controllers having the same number of pumps.
+   */
+  private final MessageCache outbox;
+
+  /**
+   * Chooses which pumps to open when filling the boiler towards its target level.
+   */
+  private final PumpSelector selector;
+
+  /**
+   * The pumps last commanded open, indexed by pump number.
+   */
+  private final boolean[] commanded;
+
+  /**
+   * The pumps chosen by the selector in the current cycle, indexed by pump number.
+   */
+  private final boolean[] selected;
+
+  /**
+   * The capacity of each pump (in litres per second), indexed by pump number.
+   */
+  private final double[] capacities;
+
+  /**
+   * Estimates the level and steam rate from the pump history, which remains meaningful when
+   * either sensor is unreliable.
+   */
+  private final LevelEstimator estimator;
+
+  /**
+   * Optional instrumentation, which is updated at the end of every cycle when present.
+   */
+  private @Nullable ControllerMetrics metrics;
+
+  /**
+   * Identifies the boiler being controlled, as reported in flight recorder events.
+   */
+  private int boilerId;
+
+  /**
+   * The level reading of the current cycle, or <code>NaN</code> if it was missing.
+   */
+  private double level = Double.NaN;
+
+  /**
+   * The steam reading of the current cycle, or <code>NaN</code> if it was missing.
+   */
+  private double steam = Double.NaN;
+
   /**
    * Construct a steam boiler controller for a given set of characteristics.
    *
@@ -51,6 +176,101 @@ public class MySteamBoilerController implements SteamBoilerController {
   public MySteamBoilerController(SteamBoilerCharacteristics configuration) {
     this.configuration = configuration;
     target = (configuration.getMaximalNormalLevel() + configuration.getMinimalNormalLevel()) / 2.0;
+    // Size buckets for a full set of pump messages, so steady state cycles never grow them
+    messages = new MessageIndex(Math.max(1, configuration.getNumberOfPumps()));
+    pumps = new PumpStates(configuration.getNumberOfPumps());
+    outbox = MessageCache.forPumps(configuration.getNumberOfPumps());
+    // The valve is always closed whilst filling, so its rate is irrelevant
+    selector = new PumpSelector(new LevelPredictor(configuration, 0));
+    commanded = new boolean[configuration.getNumberOfPumps()];
+    selected = new boolean[configuration.getNumberOfPumps()];
+    capacities = new double[configuration.getNumberOfPumps()];
+    for (int i = 0; i != capacities.length; ++i) {
+      capacities[i] = configuration.getPumpCapacity(i);
+    }
+    estimator = new LevelEstimator(configuration);
+  }
+
+  /**
+   * Construct a copy of a given controller, which continues from exactly the same state. This
+   * allows a simulation to be forked at some point, without having to re-run it from the start.
+   * Metrics are not copied, so that cycles of a fork are not counted against the original.
+   * However, the boiler identifier is, so events from a fork are attributed to the same boiler.
+   *
+   * @param other
+   *          The controller to be copied.
+   */
+  public MySteamBoilerController(MySteamBoilerController other) {
+    this(other.configuration);
+    this.mode = other.mode;
+    this.valveOpen = other.valveOpen;
+    this.boilerId = other.boilerId;
+    System.arraycopy(other.commanded, 0, this.commanded, 0, commanded.length);
+    this.estimator.copyFrom(other.estimator);
+  }
+
+  /**
+   * Determine an upper bound on the number of messages exchanged with the physical units of a
+   * boiler in a single cycle, in either direction. Hosts use this to size the mailboxes they reuse
+   * from one cycle to the next. It allows up to eight messages for each pump (its readings, repairs
+   * and acknowledgements one way, and its commands and failure detections the other), plus a fixed
+   * number concerning the boiler as a whole.
+   *
+   * @param numberOfPumps
+   *          The number of pumps in the boiler.
+   * @return The maximum number of messages in either direction.
+   */
+  public static int mailboxCapacity(int numberOfPumps) {
+    return 16 + (8 * numberOfPumps);
+  }
+
+  /**
+   * Set the identifier of the boiler being controlled, which is reported in flight recorder events
+   * (see {@link ControllerEvents}). Hosts should set this when registering a boiler.
+   *
+   * @param boilerId
+   *          The boiler identifier.
+   */
+  public void setBoilerId(int boilerId) {
+    this.boilerId = boilerId;
+  }
+
+  /**
+   * Get the identifier of the boiler being controlled.
+   *
+   * @return The boiler identifier (zero unless set).
+   */
+  public int getBoilerId() {
+    return boilerId;
+  }
+
+  /**
+   * Get the number of pumps in the boiler being controlled.
+   *
+   * @return The number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return configuration.getNumberOfPumps();
+  }
+
+  /**
+   * Attach metrics to this controller, which record the latency and state of every subsequent
+   * cycle. The same metrics should not be attached to more than one controller.
+   *
+   * @param metrics
+   *          The metrics to be updated, or <code>null</code> to disable instrumentation.
+   */
+  public void setMetrics(@Nullable ControllerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Get the metrics attached to this controller (if any).
+   *
+   * @return The attached metrics, or <code>null</code> if instrumentation is disabled.
+   */
+  public @Nullable ControllerMetrics getMetrics() {
+    return metrics;
   }
 
 	/**
@@ -77,62 +297,205 @@ public class MySteamBoilerController implements SteamBoilerController {
 	 */
 	@Override
 	public void clock(@NonNull Mailbox incoming, @NonNull Mailbox outgoing) {
-		// Extract expected messages
-		Message levelMessage = extractOnlyMatch(MessageKind.LEVEL_v, incoming);
-		Message steamMessage = extractOnlyMatch(MessageKind.STEAM_v, incoming);
-		Message[] pumpStateMessages = extractAllMatches(MessageKind.PUMP_STATE_n_b, incoming);
-		Message[] pumpControlStateMessages = extractAllMatches(MessageKind.PUMP_CONTROL_STATE_n_b, incoming);
+		ControllerMetrics m = this.metrics;
+		long start = m != null ? System.nanoTime() : 0;
+		ControllerEvents.Clock event = ControllerEvents.begin();
+		State before = mode;
+		// Read parameters directly where possible, rather than through message objects
+		DecodedMailbox in = view.of(incoming);
+		if (mode != State.EMERGENCY_STOP && requiresEmergencyStop(in)) {
+			// Stop the physical units as soon as possible, skipping the rest of the cycle
+			emergencyStop(outgoing);
+		} else {
+			process(in, outgoing);
+		}
+		// NOTE: this is an example message send to illustrate the syntax
+		//outgoing.send(new Message(MessageKind.MODE_m, Mailbox.Mode.INITIALISATION));
+		if (m != null) {
+			m.record(System.nanoTime() - start, before, mode);
+		}
+		if (before != mode) {
+			ControllerEvents.transition(boilerId, before.name(), mode.name(), level, steam);
+		}
+		if (event != null) {
+			ControllerEvents.clock(event, boilerId, mode.name(), level, steam);
+		}
+	}
+	
+	/**
+	 * Process a cycle in full, having found nothing requiring an emergency stop in
+	 * the pre-scan.
+	 *
+	 * @param incoming The set of incoming messages from the physical units.
+	 * @param outgoing Messages generated during this cycle are written here.
+	 */
+	private void process(DecodedMailbox incoming, Mailbox outgoing) {
+		// Bucket incoming messages by kind, skipping any not consumed in this mode
+		messages.index(incoming, mode.kinds);
+		// Extract expected readings
+		pumps.decode(messages);
+		level = messages.only(MessageKind.LEVEL_v);
+		steam = messages.only(MessageKind.STEAM_v);
+		estimator.update(openFlow(), reliableLevel(level), reliableSteam(steam));
 		//
-		if (transmissionFailure(levelMessage, steamMessage, pumpStateMessages, pumpControlStateMessages)) {
-			// Level and steam messages required, so emergency stop.
-			this.mode = State.EMERGENCY_STOP;
+		if (mode != State.EMERGENCY_STOP && transmissionFailure()) {
+			// Every pump must report exactly once, so emergency stop.
+			emergencyStop(outgoing);
 		}
 		//
+		mode.handler.handle(this, outgoing);
+	}
 
-		// FIXME: this is where the main implementation stems from
-		switch(mode) {
-		case WAITING:
-			doWaiting(incoming, outgoing);
-			outgoing.send(new Message(MessageKind.MODE_m, Mailbox.Mode.INITIALISATION));
-		case READY:
-			doReady(incoming, outgoing);
-			
-		
+	/**
+	 * Scan the incoming messages once for anything requiring an immediate
+	 * emergency stop. That is, a missing or duplicate level or steam reading, the
+	 * wrong number of pump readings, or (in modes where the level is limited) a
+	 * plausible level reading beyond the limits. Only the number of pump readings is
+	 * checked here, so duplicate or out-of-range pump numbers are detected by
+	 * {@link #transmissionFailure()} once the cycle is processed in full. This
+	 * records the level and steam readings, as <code>NaN</code> if missing or
+	 * duplicated.
+	 *
+	 * @param incoming The set of incoming messages from the physical units.
+	 * @return <code>true</code> if an emergency stop is required.
+	 */
+	private boolean requiresEmergencyStop(DecodedMailbox incoming) {
+		int levels = 0;
+		int steams = 0;
+		int pumpStates = 0;
+		int controlStates = 0;
+		double levelReading = Double.NaN;
+		double steamReading = Double.NaN;
+		for (int i = 0; i != incoming.size(); ++i) {
+			MessageKind kind = incoming.getKind(i);
+			if (kind == MessageKind.LEVEL_v) {
+				levels = levels + 1;
+				levelReading = incoming.getDoubleParameter(i);
+			} else if (kind == MessageKind.STEAM_v) {
+				steams = steams + 1;
+				steamReading = incoming.getDoubleParameter(i);
+			} else if (kind == MessageKind.PUMP_STATE_n_b) {
+				pumpStates = pumpStates + 1;
+			} else if (kind == MessageKind.PUMP_CONTROL_STATE_n_b) {
+				controlStates = controlStates + 1;
+			}
 		}
-		// NOTE: this is an example message send to illustrate the syntax
-		//outgoing.send(new Message(MessageKind.MODE_m, Mailbox.Mode.INITIALISATION));
+		level = levels == 1 ? levelReading : Double.NaN;
+		steam = steams == 1 ? steamReading : Double.NaN;
+		final int n = commanded.length;
+		String failure;
+		if (levels != 1) {
+			failure = levels == 0 ? "missing level reading" : "duplicate level reading";
+		} else if (steams != 1) {
+			failure = steams == 0 ? "missing steam reading" : "duplicate steam reading";
+		} else if (pumpStates != n || controlStates != n) {
+			failure = "wrong number of pump readings";
+		} else if (mode.limited && !Double.isNaN(reliableLevel(level))
+				&& (level < configuration.getMinimalLimitLevel()
+						|| level > configuration.getMaximalLimitLevel())) {
+			failure = "level beyond limits";
+		} else {
+			return false;
+		}
+		ControllerEvents.failure(boilerId, failure, level, steam);
+		return true;
 	}
-	
+
+	/**
+	 * Enter emergency stop mode, and tell the physical units to stop.
+	 *
+	 * @param outgoing The mailbox to send the mode on.
+	 */
+	private void emergencyStop(Mailbox outgoing) {
+		mode = State.EMERGENCY_STOP;
+		outgoing.send(outbox.mode(Mailbox.Mode.EMERGENCY_STOP));
+	}
+
+	/**
+	 * Move to normal mode if the physical units have signalled they are ready.
+	 *
+	 * @param incoming The set of incoming messages from the physical units.
+	 * @param outgoing The mailbox to send the mode on.
+	 */
 	public void doReady(Mailbox incoming, Mailbox outgoing) {
-		if(extractAllMatches(MessageKind.PHYSICAL_UNITS_READY, incoming).length == 1) {
+		messages.index(view.of(incoming));
+		doReady(outgoing);
+	}
+
+	/**
+	 * Check whether the physical units are waiting, and if so fill or drain the
+	 * boiler towards its normal range.
+	 *
+	 * @param incoming The set of incoming messages from the physical units.
+	 * @param outgoing The mailbox to send commands on.
+	 * @return <code>false</code> if the physical units were not waiting, or an
+	 *         emergency stop was required.
+	 */
+	public boolean doWaiting(Mailbox incoming, Mailbox outgoing) {
+		messages.index(view.of(incoming));
+		return doWaiting(outgoing);
+	}
+
+	/**
+	 * Process a cycle in waiting mode, which continues into ready mode if the
+	 * physical units signal they are ready in the same cycle. Nothing further is
+	 * sent once an emergency stop has been required.
+	 *
+	 * @param outgoing The mailbox to send commands on.
+	 */
+	private void handleWaiting(Mailbox outgoing) {
+		if (!doWaiting(outgoing) && mode == State.EMERGENCY_STOP) {
+			return;
+		}
+		outgoing.send(outbox.mode(Mailbox.Mode.INITIALISATION));
+		doReady(outgoing);
+	}
+
+	/**
+	 * As {@link #doReady(Mailbox, Mailbox)}, using the messages already indexed
+	 * for this cycle.
+	 *
+	 * @param outgoing The mailbox to send the mode on.
+	 */
+	private void doReady(Mailbox outgoing) {
+		if(messages.count(MessageKind.PHYSICAL_UNITS_READY) == 1) {
 			mode = State.NORMAL;
-			outgoing.send(new Message(MessageKind.MODE_m, Mailbox.Mode.NORMAL));
+			outgoing.send(outbox.mode(Mailbox.Mode.NORMAL));
 		}
 	}
 	
-	public boolean doWaiting(Mailbox incoming, Mailbox outgoing) {
+	/**
+	 * As {@link #doWaiting(Mailbox, Mailbox)}, using the messages already indexed
+	 * for this cycle.
+	 *
+	 * @param outgoing The mailbox to send commands on.
+	 * @return <code>false</code> if the physical units were not waiting, or an
+	 *         emergency stop was required.
+	 */
+	private boolean doWaiting(Mailbox outgoing) {
 		
-		if(extractAllMatches(MessageKind.STEAM_BOILER_WAITING, incoming).length != 1) {
+		if(messages.count(MessageKind.STEAM_BOILER_WAITING) != 1) {
 			return false;
 		} 
 		
-		Message levelMessage = extractOnlyMatch(MessageKind.LEVEL_v, incoming);
-		Message steamMessage = extractOnlyMatch(MessageKind.STEAM_v, incoming);
-		if(levelMessage == null || steamMessage == null) {
-			this.mode = State.EMERGENCY_STOP;
+		// Readings are NaN if missing or duplicated, which fails both checks below
+		double levelReading = messages.only(MessageKind.LEVEL_v);
+		double steamReading = messages.only(MessageKind.STEAM_v);
+		if(!(steamReading == 0)) {
+			ControllerEvents.failure(boilerId, "steam output whilst waiting", level, steam);
+			emergencyStop(outgoing);
 			return false;
-		} else if(steamMessage.getDoubleParameter() != 0){
-			this.mode = State.EMERGENCY_STOP;
+		} else if(!(levelReading >= 0 && levelReading < configuration.getCapacity())) {
+			ControllerEvents.failure(boilerId, "level out of range", level, steam);
+			emergencyStop(outgoing);
 			return false;
-		} else if(levelMessage.getDoubleParameter() < 0 || levelMessage.getDoubleParameter() >= configuration.getCapacity()) { 
-			System.out.println("sensor broken");
-			this.mode = State.EMERGENCY_STOP;
-			return false;
-		} else if(levelMessage.getDoubleParameter() > configuration.getMaximalNormalLevel()
-				|| levelMessage.getDoubleParameter() < configuration.getMinimalNormalLevel()) {
-			hitInitialTarget(levelMessage.getDoubleParameter(), outgoing);
+		} else if(levelReading > configuration.getMaximalNormalLevel()
+				|| levelReading < configuration.getMinimalNormalLevel()) {
+			hitInitialTarget(levelReading, outgoing);
 		} else {
-			outgoing.send(new Message(MessageKind.PROGRAM_READY));
+			// Stop filling, otherwise the level keeps rising once ready
+			closePumps(outgoing);
+			outgoing.send(outbox.get(MessageKind.PROGRAM_READY));
 			this.mode = State.READY;
 		}
 		return true;
@@ -141,105 +504,136 @@ public class MySteamBoilerController implements SteamBoilerController {
 
 	public void hitInitialTarget(double level, Mailbox outgoing) {
 		if(level > configuration.getMaximalNormalLevel() && !valveOpen) {
-			outgoing.send(new Message(MessageKind.VALVE));
+			// Stop any pumps still filling, which would otherwise work against the valve
+			closePumps(outgoing);
+			command(outgoing, MessageKind.VALVE, -1);
 			valveOpen = true;
 		} else if(level < configuration.getMinimalNormalLevel()) {
-			outgoing.send(new Message(MessageKind.OPEN_PUMP_n, 0));
+			selector.select(level, steam, false, target, selected);
+			commandPumps(outgoing, selected);
 			if(valveOpen) {
-				outgoing.send(new Message(MessageKind.VALVE));
+				command(outgoing, MessageKind.VALVE, -1);
 				valveOpen = false;
 			}
 		} else {
-			outgoing.send(new Message(MessageKind.CLOSE_PUMP_n, 0));
+			closePumps(outgoing);
 			if(valveOpen) {
-				outgoing.send(new Message(MessageKind.VALVE));
+				command(outgoing, MessageKind.VALVE, -1);
 				valveOpen = true;
 			}
 		}
 	}
+
+	/**
+	 * Open or close pumps as necessary, such that exactly those given are open. Commands
+	 * are sent to pumps whose state is changing, and resent to any pump which reported
+	 * a different state this cycle (e.g. because an earlier command was lost).
+	 *
+	 * @param outgoing The mailbox to send commands on.
+	 * @param open     The pumps which should be open, indexed by pump number.
+	 */
+	private void commandPumps(Mailbox outgoing, boolean[] open) {
+		for (int i = 0; i != open.length; ++i) {
+			if (open[i] != commanded[i] || open[i] != pumps.isOpen(i)) {
+				command(outgoing, open[i] ? MessageKind.OPEN_PUMP_n : MessageKind.CLOSE_PUMP_n, i);
+				commanded[i] = open[i];
+			}
+		}
+	}
+
+	/**
+	 * Close every pump which was commanded open.
+	 *
+	 * @param outgoing The mailbox to send commands on.
+	 */
+	private void closePumps(Mailbox outgoing) {
+		Arrays.fill(selected, false);
+		commandPumps(outgoing, selected);
+	}
+
+	/**
+	 * Send a command to a pump or the valve, recording it as a flight recorder event.
+	 *
+	 * @param outgoing The mailbox to send the command on.
+	 * @param kind     The kind of command.
+	 * @param pump     The pump being commanded, or -1 for the valve.
+	 */
+	private void command(Mailbox outgoing, MessageKind kind, int pump) {
+		outgoing.send(pump < 0 ? outbox.get(kind) : outbox.get(kind, pump));
+		ControllerEvents.command(boilerId, kind.name(), pump, level, steam);
+	}
 	
 	
 	/**
-	 * Check whether there was a transmission failure. This is indicated in several
-	 * ways. Firstly, when one of the required messages is missing. Secondly, when
-	 * the values returned in the messages are nonsensical.
+	 * Get the estimated water level, which remains meaningful when the level sensor is
+	 * unreliable.
 	 *
-	 * @param levelMessage      Extracted LEVEL_v message.
-	 * @param steamMessage      Extracted STEAM_v message.
-	 * @param pumpStates        Extracted PUMP_STATE_n_b messages.
-	 * @param pumpControlStates Extracted PUMP_CONTROL_STATE_n_b messages.
-	 * @return
+	 * @return The level, or <code>NaN</code> if no reliable reading has been received yet.
 	 */
-	private boolean transmissionFailure(Message levelMessage, Message steamMessage, Message[] pumpStates,
-			Message[] pumpControlStates) {
-		// Check level readings
-		if (levelMessage == null) {
-			// Nonsense or missing level reading
-			return true;
-		} else if (steamMessage == null) {
-			// Nonsense or missing steam reading
-			return true;
-		} else if (pumpStates.length != configuration.getNumberOfPumps()) {
-			// Nonsense pump state readings
-			return true;
-		} else if (pumpControlStates.length != configuration.getNumberOfPumps()) {
-			// Nonsense pump control state readings
-			return true;
-		}
-		// Done
-		return false;
+	public double getEstimatedLevel() {
+		return estimator.getLevel();
 	}
 
 	/**
-	 * Find and extract a message of a given kind in a mailbox. This must the only
-	 * match in the mailbox, else <code>null</code> is returned.
+	 * Get the estimated steam rate, which remains meaningful when the steam sensor is
+	 * unreliable.
 	 *
-	 * @param kind     The kind of message to look for.
-	 * @param incoming The mailbox to search through.
-	 * @return The matching message, or <code>null</code> if there was not exactly
-	 *         one match.
+	 * @return The steam rate, or <code>NaN</code> if no reliable level reading has been
+	 *         received yet.
 	 */
-	private static @Nullable Message extractOnlyMatch(MessageKind kind, Mailbox incoming) {
-		Message match = null;
-		for (int i = 0; i != incoming.size(); ++i) {
-			Message ith = incoming.read(i);
-			if (ith.getKind() == kind) {
-				if (match == null) {
-					match = ith;
-				} else {
-					// This indicates that we matched more than one message of the given kind.
-					return null;
-				}
-			}
-		}
-		return match;
+	public double getEstimatedSteam() {
+		return estimator.getSteam();
 	}
 
 	/**
-	 * Find and extract all messages of a given kind.
+	 * Determine the total flow of the pumps reported open in this cycle.
 	 *
-	 * @param kind     The kind of message to look for.
-	 * @param incoming The mailbox to search through.
-	 * @return The array of matches, which can empty if there were none.
+	 * @return The flow (in litres per second).
 	 */
-	private static Message[] extractAllMatches(MessageKind kind, Mailbox incoming) {
-		int count = 0;
-		// Count the number of matches
-		for (int i = 0; i != incoming.size(); ++i) {
-			Message ith = incoming.read(i);
-			if (ith.getKind() == kind) {
-				count = count + 1;
+	private double openFlow() {
+		double flow = 0;
+		for (int w = 0; w != pumps.words(); ++w) {
+			for (long bits = pumps.open(w); bits != 0; bits &= bits - 1) {
+				flow += capacities[(w * Long.SIZE) + Long.numberOfTrailingZeros(bits)];
 			}
 		}
-		// Now, construct resulting array
-		Message[] matches = new Message[count];
-		int index = 0;
-		for (int i = 0; i != incoming.size(); ++i) {
-			Message ith = incoming.read(i);
-			if (ith.getKind() == kind) {
-				matches[index++] = ith;
-			}
+		return flow;
+	}
+
+	/**
+	 * Filter out a level reading which is physically impossible.
+	 *
+	 * @param reading The level reading, or <code>NaN</code> if missing.
+	 * @return The reading, or <code>NaN</code> if it cannot be relied upon.
+	 */
+	private double reliableLevel(double reading) {
+		return reading >= 0 && reading <= configuration.getCapacity() ? reading : Double.NaN;
+	}
+
+	/**
+	 * Filter out a steam reading which is physically impossible.
+	 *
+	 * @param reading The steam reading, or <code>NaN</code> if missing.
+	 * @return The reading, or <code>NaN</code> if it cannot be relied upon.
+	 */
+	private double reliableSteam(double reading) {
+		return reading >= 0 && reading <= configuration.getMaximualSteamRate() ? reading : Double.NaN;
+	}
+
+	/**
+	 * Check whether there was a transmission failure which the pre-scan could not
+	 * detect. The pre-scan has already checked there was exactly one level and one
+	 * steam reading, and the right number of pump readings, so this only remains
+	 * for pump numbers which are duplicated or out of range.
+	 *
+	 * @return <code>true</code> if the pump readings were malformed.
+	 */
+	private boolean transmissionFailure() {
+		if (!pumps.isComplete()) {
+			// Duplicate or nonsense pump (control) numbers
+			ControllerEvents.failure(boilerId, "malformed pump readings", level, steam);
+			return true;
 		}
-		return matches;
+		return false;
 	}
 }
@@ -0,0 +1,237 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+/**
+ * Chooses which pumps to open such that the predicted level at the end of the cycle is as close as
+ * possible to a given target. This is a subset-sum problem over the pump capacities, and is solved
+ * by branch-and-bound. Pumps with the same capacity are interchangeable, so they are grouped and
+ * the search only decides how many of each group to open. Groups are explored in descending order
+ * of capacity, with larger counts tried first, and a branch is pruned once it cannot improve on
+ * the best combination found so far. Since every capacity is non-negative, a branch whose flow
+ * already exceeds the target by more than the best error can only get worse, as can one whose
+ * flow falls short even with every remaining pump open.
+ *
+ * <p>
+ * The search visits at most a fixed budget of nodes per cycle, after which the best combination
+ * found so far is used. It also stops as soon as a combination lands within some tolerance of the
+ * target. For boilers whose pumps are all the same, the search is exact after a
+ * single pass over the counts. All working storage is allocated on construction, so a selector
+ * must not be shared between controllers.
+ * </p>
+ */
+public final class PumpSelector {
+  /**
+   * The default number of search nodes visited per cycle.
+   */
+  public static final int DEFAULT_BUDGET = 1024;
+
+  /**
+   * The default for how close (in litres) the predicted level must get to the target for the
+   * search to stop early. Level readings are nowhere near this precise, so searching further gains
+   * nothing.
+   */
+  public static final double DEFAULT_TOLERANCE = 1.0;
+
+  private final LevelPredictor predictor;
+
+  /**
+   * The maximum number of search nodes visited per cycle.
+   */
+  private final int budget;
+
+  /**
+   * Distinct pump capacities, in descending order.
+   */
+  private final double[] capacity;
+
+  /**
+   * The number of pumps with each distinct capacity.
+   */
+  private final int[] size;
+
+  /**
+   * The highest rank (see {@link LevelPredictor#getPump(int)}) of any pump in each group.
+   */
+  private final int[] rank;
+
+  /**
+   * The total capacity of each group and all those after it.
+   */
+  private final double[] remaining;
+
+  /**
+   * The number of pumps opened from each group on the current search path.
+   */
+  private final int[] counts;
+
+  /**
+   * The number of pumps opened from each group in the best combination found.
+   */
+  private final int[] best;
+
+  /**
+   * The flow required to hit the target exactly.
+   */
+  private double needed;
+
+  /**
+   * The difference between the best flow found and the flow required.
+   */
+  private double error;
+
+  /**
+   * The error (in terms of flow) below which the search stops.
+   */
+  private final double tolerance;
+
+  private int nodes;
+
+  /**
+   * Construct a selector with the default budget and tolerance.
+   *
+   * @param predictor
+   *          The predictor for the boiler's pumps.
+   */
+  public PumpSelector(LevelPredictor predictor) {
+    this(predictor, DEFAULT_BUDGET, DEFAULT_TOLERANCE);
+  }
+
+  /**
+   * Construct a selector.
+   *
+   * @param predictor
+   *          The predictor for the boiler's pumps.
+   * @param budget
+   *          The maximum number of search nodes visited per cycle.
+   * @param tolerance
+   *          How close (in litres) the predicted level must get to the target for the search to
+   *          stop early, where zero means only an exact hit.
+   */
+  public PumpSelector(LevelPredictor predictor, int budget, double tolerance) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("invalid budget: " + budget);
+    } else if (!(tolerance >= 0)) {
+      throw new IllegalArgumentException("invalid tolerance: " + tolerance);
+    }
+    this.predictor = predictor;
+    this.budget = budget;
+    this.tolerance = tolerance / LevelPredictor.CYCLE;
+    final int n = predictor.getNumberOfPumps();
+    int groups = 0;
+    for (int r = n - 1; r >= 0; --r) {
+      if (r == n - 1 || predictor.getCapacity(r) != predictor.getCapacity(r + 1)) {
+        groups = groups + 1;
+      }
+    }
+    this.capacity = new double[groups];
+    this.size = new int[groups];
+    this.rank = new int[groups];
+    this.remaining = new double[groups + 1];
+    this.counts = new int[groups];
+    this.best = new int[groups];
+    int g = -1;
+    for (int r = n - 1; r >= 0; --r) {
+      if (r == n - 1 || predictor.getCapacity(r) != predictor.getCapacity(r + 1)) {
+        g = g + 1;
+        capacity[g] = predictor.getCapacity(r);
+        rank[g] = r;
+      }
+      size[g]++;
+    }
+    for (g = groups - 1; g >= 0; --g) {
+      remaining[g] = remaining[g + 1] + (capacity[g] * size[g]);
+    }
+  }
+
+  /**
+   * Get the number of pumps covered by this selector.
+   *
+   * @return The number of pumps.
+   */
+  public int getNumberOfPumps() {
+    return predictor.getNumberOfPumps();
+  }
+
+  /**
+   * Choose the pumps to open for the coming cycle.
+   *
+   * @param level
+   *          The level at the start of the cycle.
+   * @param steam
+   *          The measured steam rate (in litres per second).
+   * @param valveOpen
+   *          Whether the valve will be open during the cycle.
+   * @param target
+   *          The level to aim for at the end of the cycle.
+   * @param open
+   *          Set to indicate which pumps should be open, indexed by pump number.
+   * @return The level predicted for the chosen pumps.
+   */
+  public double select(double level, double steam, boolean valveOpen, double target,
+      boolean[] open) {
+    double drained = predictor.predict(level, steam, valveOpen, 0);
+    needed = (target - drained) / LevelPredictor.CYCLE;
+    // Start with every pump closed
+    Arrays.fill(best, 0);
+    error = Math.abs(needed);
+    nodes = 0;
+    search(0, 0);
+    double flow = 0;
+    for (int g = 0; g != capacity.length; ++g) {
+      for (int i = 0; i != size[g]; ++i) {
+        open[predictor.getPump(rank[g] - i)] = i < best[g];
+      }
+      flow += capacity[g] * best[g];
+    }
+    return predictor.predict(level, steam, valveOpen, flow);
+  }
+
+  /**
+   * Get the number of search nodes visited by the last selection.
+   *
+   * @return The number of nodes, which never exceeds the budget.
+   */
+  public int getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Search for the best number of pumps to open from a given group onwards.
+   *
+   * @param g
+   *          The group being decided.
+   * @param flow
+   *          The flow of the pumps opened in earlier groups.
+   */
+  private void search(int g, double flow) {
+    if (flow >= needed || flow + remaining[g] <= needed) {
+      // Either nothing more should be opened, or everything should be
+      boolean all = flow < needed;
+      double total = all ? flow + remaining[g] : flow;
+      double e = Math.abs(total - needed);
+      if (e < error) {
+        error = e;
+        for (int i = 0; i != capacity.length; ++i) {
+          best[i] = i < g ? counts[i] : (all ? size[i] : 0);
+        }
+      }
+      return;
+    }
+    // Try larger counts first, since these get close to the target fastest
+    int c = (int) Math.min(size[g], Math.floor((needed - flow) / capacity[g]) + 1);
+    for (; c >= 0 && nodes < budget && error > tolerance; --c) {
+      nodes = nodes + 1;
+      double f = flow + (c * capacity[g]);
+      if (f - needed >= error) {
+        // Overshoots by too much, so try fewer
+        continue;
+      } else if (needed - (f + remaining[g + 1]) >= error) {
+        // Undershoots by too much, and fewer only makes this worse
+        break;
+      }
+      counts[g] = c;
+      search(g + 1, f);
+    }
+  }
+}
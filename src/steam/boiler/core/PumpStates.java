@@ -0,0 +1,186 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * The pump readings received in a single cycle, decoded into bitsets where bit <code>i</code>
+ * corresponds to pump <code>i</code>. Decoding checks that every pump reported exactly once, so
+ * that missing, duplicate or out-of-range pump numbers are all detected. Each bitset is an array of
+ * words, where word <code>w</code> holds pumps <code>64w</code> to <code>64w + 63</code>, so any
+ * number of pumps is supported.
+ */
+final class PumpStates {
+  /**
+   * The number of pumps in the boiler.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * Bitset with one bit set for every pump in the boiler.
+   */
+  private final long[] all;
+
+  /**
+   * Pumps for which a <code>PUMP_STATE_n_b</code> message was received.
+   */
+  private final long[] seen;
+
+  /**
+   * Pumps for which a <code>PUMP_CONTROL_STATE_n_b</code> message was received.
+   */
+  private final long[] controlSeen;
+
+  /**
+   * Pumps reported as open by <code>PUMP_STATE_n_b</code>.
+   */
+  private final long[] open;
+
+  /**
+   * Pumps reported as flowing by <code>PUMP_CONTROL_STATE_n_b</code>.
+   */
+  private final long[] flowing;
+
+  /**
+   * Set when a pump number was out of range, or reported more than once.
+   */
+  private boolean malformed;
+
+  /**
+   * Construct an empty set of pump readings.
+   *
+   * @param numberOfPumps
+   *          The number of pumps in the boiler.
+   */
+  PumpStates(int numberOfPumps) {
+    if (numberOfPumps < 0) {
+      throw new IllegalArgumentException("invalid number of pumps: " + numberOfPumps);
+    }
+    int words = (numberOfPumps + Long.SIZE - 1) / Long.SIZE;
+    this.numberOfPumps = numberOfPumps;
+    this.all = new long[words];
+    this.seen = new long[words];
+    this.controlSeen = new long[words];
+    this.open = new long[words];
+    this.flowing = new long[words];
+    for (int i = 0; i != numberOfPumps; ++i) {
+      all[i / Long.SIZE] |= 1L << i;
+    }
+  }
+
+  /**
+   * Decode the pump readings for this cycle. Any readings from the previous cycle are forgotten.
+   *
+   * @param messages
+   *          The incoming messages for this cycle.
+   * @return <code>true</code> if every pump and pump controller reported exactly once.
+   */
+  boolean decode(MessageIndex messages) {
+    Arrays.fill(seen, 0);
+    Arrays.fill(controlSeen, 0);
+    Arrays.fill(open, 0);
+    Arrays.fill(flowing, 0);
+    malformed = false;
+    for (int i = 0; i != messages.count(MessageKind.PUMP_STATE_n_b); ++i) {
+      record(messages.getIntegerParameter(MessageKind.PUMP_STATE_n_b, i),
+          messages.getBooleanParameter(MessageKind.PUMP_STATE_n_b, i), seen, open);
+    }
+    for (int i = 0; i != messages.count(MessageKind.PUMP_CONTROL_STATE_n_b); ++i) {
+      record(messages.getIntegerParameter(MessageKind.PUMP_CONTROL_STATE_n_b, i),
+          messages.getBooleanParameter(MessageKind.PUMP_CONTROL_STATE_n_b, i), controlSeen,
+          flowing);
+    }
+    return isComplete();
+  }
+
+  /**
+   * Record a single pump reading, noting whether its pump number is out of range or was already
+   * reported.
+   *
+   * @param pump
+   *          The pump number.
+   * @param state
+   *          The reported state.
+   * @param reported
+   *          Bitset of pumps reported so far.
+   * @param states
+   *          Bitset of pumps reported in the <code>true</code> state.
+   */
+  private void record(int pump, boolean state, long[] reported, long[] states) {
+    if (pump < 0 || pump >= numberOfPumps) {
+      malformed = true;
+      return;
+    }
+    int w = pump / Long.SIZE;
+    long bit = 1L << pump;
+    malformed |= (reported[w] & bit) != 0;
+    reported[w] |= bit;
+    if (state) {
+      states[w] |= bit;
+    }
+  }
+
+  /**
+   * Check whether every pump and pump controller reported exactly once in this cycle.
+   *
+   * @return <code>true</code> if the pump readings are complete.
+   */
+  boolean isComplete() {
+    return !malformed && Arrays.equals(seen, all) && Arrays.equals(controlSeen, all);
+  }
+
+  /**
+   * Check whether a given pump was reported as open in this cycle.
+   *
+   * @param pump
+   *          The pump number, which must be within the boiler.
+   * @return <code>true</code> if the pump reported it was open.
+   */
+  boolean isOpen(int pump) {
+    return (open[pump / Long.SIZE] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Get the number of words in each bitset.
+   *
+   * @return The number of words.
+   */
+  int words() {
+    return all.length;
+  }
+
+  /**
+   * Get a word of the pumps reported as open.
+   *
+   * @param word
+   *          The word required.
+   * @return Bitset of open pumps amongst those covered by the word.
+   */
+  long open(int word) {
+    return open[word];
+  }
+
+  /**
+   * Get a word of the pumps reported as flowing by their pump controllers.
+   *
+   * @param word
+   *          The word required.
+   * @return Bitset of flowing pumps amongst those covered by the word.
+   */
+  long flowing(int word) {
+    return flowing[word];
+  }
+
+  /**
+   * Get a word of the pumps whose state disagrees with their pump controller.
+   *
+   * @param word
+   *          The word required.
+   * @return Bitset of pumps which are open but not flowing, or vice versa, amongst those covered by
+   *         the word.
+   */
+  long disagreeing(int word) {
+    return open[word] ^ flowing[word];
+  }
+}
@@ -0,0 +1,152 @@
+package steam.boiler.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A bounded mailbox backed by a ring buffer, which can be reused from one cycle to the next rather
+ * than allocating a fresh mailbox each time. The mailbox is safe for use by a single producer
+ * thread (which calls {@link #send(Message)}) and a single consumer thread (which calls the
+ * remaining methods) without locking. Of course, it can also be used from a single thread.
+ *
+ * <p>
+ * The consumer sees every message sent so far, and discards them once processed using
+ * {@link #clear()}. Thus, a typical cycle is for the producer to send a batch of messages, and
+ * then for the consumer to read and clear them.
+ * </p>
+ */
+public final class RingMailbox implements Mailbox {
+  /**
+   * Storage for messages, whose length is always a power of two.
+   */
+  private final Message[] buffer;
+
+  /**
+   * Used to map positions into the buffer.
+   */
+  private final int mask;
+
+  /**
+   * Position of the first unconsumed message. This is only written by the consumer.
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Position after the last message sent. This is only written by the producer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * The producer's last view of the head, which avoids reading it on every send.
+   */
+  private long cachedHead;
+
+  /**
+   * Construct an empty mailbox.
+   *
+   * @param capacity
+   *          The maximum number of messages which can be held at once. This is rounded up to a
+   *          power of two.
+   */
+  public RingMailbox(int capacity) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("invalid capacity: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size = size << 1;
+    }
+    this.buffer = new Message[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * Get the maximum number of messages which can be held at once.
+   *
+   * @return The capacity of this mailbox.
+   */
+  public int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Send a message. This must only be called from the producer thread.
+   *
+   * @throws IllegalStateException
+   *           If the mailbox is full.
+   */
+  @Override
+  public void send(Message message) {
+    long t = tail.get();
+    if (t - cachedHead == buffer.length) {
+      cachedHead = head.get();
+      if (t - cachedHead == buffer.length) {
+        throw new IllegalStateException("mailbox full");
+      }
+    }
+    buffer[(int) t & mask] = message;
+    // Publish the message to the consumer
+    tail.lazySet(t + 1);
+  }
+
+  /**
+   * Read a message. This must only be called from the consumer thread.
+   */
+  @Override
+  public Message read(int i) {
+    long h = head.get();
+    if (i < 0 || i >= tail.get() - h) {
+      throw new IndexOutOfBoundsException("invalid message index: " + i);
+    }
+    return buffer[(int) (h + i) & mask];
+  }
+
+  /**
+   * Get the number of messages available. This must only be called from the consumer thread.
+   */
+  @Override
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  /**
+   * Discard all messages currently available, making room for more to be sent. This must only be
+   * called from the consumer thread. Note that, if the producer is still sending, this may discard
+   * messages which the consumer has not yet read (see {@link #discard(int)}).
+   */
+  public void clear() {
+    discard(size());
+  }
+
+  /**
+   * Discard a given number of messages from the front of this mailbox, making room for more to be
+   * sent. This must only be called from the consumer thread.
+   *
+   * @param n
+   *          The number of messages to discard, which cannot exceed the number available.
+   */
+  public void discard(int n) {
+    long h = head.get();
+    if (n < 0 || n > tail.get() - h) {
+      throw new IndexOutOfBoundsException("cannot discard " + n + " messages");
+    }
+    for (long i = h; i != h + n; ++i) {
+      // Drop references so that old messages can be collected
+      buffer[(int) i & mask] = null;
+    }
+    head.lazySet(h + n);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder r = new StringBuilder("[");
+    for (int i = 0; i != size(); ++i) {
+      if (i != 0) {
+        r.append(", ");
+      }
+      r.append(read(i));
+    }
+    return r.append("]").toString();
+  }
+}
@@ -0,0 +1,36 @@
+package steam.boiler.fleet;
+
+import steam.boiler.model.SteamBoilerController;
+
+/**
+ * A single boiler hosted by a fleet, which pairs a controller with the endpoint for its physical
+ * units.
+ */
+final class Boiler {
+  /**
+   * Identifies this boiler within the fleet.
+   */
+  final int id;
+
+  /**
+   * The controller responsible for this boiler.
+   */
+  final SteamBoilerController controller;
+
+  /**
+   * The number of pumps in this boiler, which bounds the messages exchanged in a cycle.
+   */
+  final int numberOfPumps;
+
+  /**
+   * The physical units of this boiler.
+   */
+  final BoilerEndpoint endpoint;
+
+  Boiler(int id, SteamBoilerController controller, int numberOfPumps, BoilerEndpoint endpoint) {
+    this.id = id;
+    this.controller = controller;
+    this.numberOfPumps = numberOfPumps;
+    this.endpoint = endpoint;
+  }
+}
@@ -0,0 +1,28 @@
+package steam.boiler.fleet;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * The physical units of a single boiler, as seen by a controller host. On every cycle the host
+ * asks the endpoint to transmit its readings, clocks the controller with them, and then passes the
+ * controller's commands back to the endpoint.
+ */
+public interface BoilerEndpoint {
+  /**
+   * Write the messages from the physical units for this cycle. The mailbox may be reused by the
+   * host once the cycle is over, and so should not be retained.
+   *
+   * @param incoming
+   *          The mailbox to be passed to the controller.
+   */
+  public void transmit(Mailbox incoming);
+
+  /**
+   * Apply the messages produced by the controller for this cycle. The mailbox may be reused by the
+   * host once this returns, and so should not be retained.
+   *
+   * @param outgoing
+   *          The mailbox written by the controller.
+   */
+  public void receive(Mailbox outgoing);
+}
@@ -0,0 +1,296 @@
+package steam.boiler.fleet;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import steam.boiler.core.ControllerMetrics;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A headless runtime hosting many boilers in a single JVM. Boilers are sharded across a fixed
+ * number of worker threads, and each worker clocks its boilers in turn. Every boiler runs on its
+ * own schedule (by default every five seconds), with the boilers of a shard spread evenly across
+ * the period so that the load on each worker is smooth.
+ *
+ * <p>
+ * Since all boilers share the same period, their order within a shard never changes. Thus, each
+ * worker simply cycles through its boilers in phase order, sleeping until the next deadline.
+ * </p>
+ */
+public class FleetHost {
+  /**
+   * The default period between two clock signals, as required by the steam boiler specification.
+   */
+  public static final long DEFAULT_PERIOD = TimeUnit.SECONDS.toNanos(5);
+
+  /**
+   * The period (in ns) between two clock signals for the same boiler.
+   */
+  private final long period;
+
+  /**
+   * The workers, each with the boilers assigned to it.
+   */
+  private final Shard[] shards;
+
+  /**
+   * Total number of boilers registered.
+   */
+  private int size;
+
+  /**
+   * Set once the host has been started.
+   */
+  private volatile boolean running;
+
+  /**
+   * Construct a host with a given number of workers, clocking boilers every five seconds.
+   *
+   * @param numberOfShards
+   *          The number of worker threads.
+   */
+  public FleetHost(int numberOfShards) {
+    this(numberOfShards, DEFAULT_PERIOD, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Construct a host with a given number of workers and clock period.
+   *
+   * @param numberOfShards
+   *          The number of worker threads.
+   * @param period
+   *          The period between two clock signals for the same boiler.
+   * @param unit
+   *          The unit of the period.
+   */
+  public FleetHost(int numberOfShards, long period, TimeUnit unit) {
+    if (numberOfShards <= 0) {
+      throw new IllegalArgumentException("invalid number of shards: " + numberOfShards);
+    } else if (period <= 0) {
+      throw new IllegalArgumentException("invalid period: " + period);
+    }
+    this.period = unit.toNanos(period);
+    this.shards = new Shard[numberOfShards];
+    for (int i = 0; i != numberOfShards; ++i) {
+      shards[i] = new Shard(i);
+    }
+  }
+
+  /**
+   * Register a boiler with this host, using a fresh controller for the given characteristics.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   * @param endpoint
+   *          The physical units of the boiler.
+   * @return The identifier assigned to the boiler.
+   */
+  public int register(SteamBoilerCharacteristics configuration, BoilerEndpoint endpoint) {
+    MySteamBoilerController controller = new MySteamBoilerController(configuration);
+    int id = register(controller, configuration.getNumberOfPumps(), endpoint);
+    controller.setBoilerId(id);
+    return id;
+  }
+
+  /**
+   * Register a boiler with this host. Boilers can only be registered before the host is started.
+   *
+   * @param controller
+   *          The controller for the boiler.
+   * @param numberOfPumps
+   *          The number of pumps in the boiler, which determines the size of its mailboxes.
+   * @param endpoint
+   *          The physical units of the boiler.
+   * @return The identifier assigned to the boiler.
+   */
+  public synchronized int register(SteamBoilerController controller, int numberOfPumps,
+      BoilerEndpoint endpoint) {
+    if (running) {
+      throw new IllegalStateException("fleet already started");
+    }
+    int id = size++;
+    shards[id % shards.length].add(new Boiler(id, controller, numberOfPumps, endpoint));
+    return id;
+  }
+
+  /**
+   * Get the number of boilers registered with this host.
+   *
+   * @return The number of boilers.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of workers used by this host.
+   *
+   * @return The number of shards.
+   */
+  public int getNumberOfShards() {
+    return shards.length;
+  }
+
+  /**
+   * Get the tick statistics of a given worker.
+   *
+   * @param shard
+   *          The worker in question.
+   * @return The statistics for that worker.
+   */
+  public TickMetrics getMetrics(int shard) {
+    return shards[shard].metrics;
+  }
+
+  /**
+   * Get the tick statistics across all workers.
+   *
+   * @return The combined statistics.
+   */
+  public TickMetrics getMetrics() {
+    TickMetrics total = new TickMetrics();
+    for (Shard shard : shards) {
+      total.add(shard.metrics);
+    }
+    return total;
+  }
+
+  /**
+   * Get the controller statistics across all boilers whose controllers have metrics attached (see
+   * {@link MySteamBoilerController#setMetrics(ControllerMetrics)}). This can be called whilst the
+   * host is running.
+   *
+   * @return The combined statistics.
+   */
+  public ControllerMetrics getControllerMetrics() {
+    ControllerMetrics total = new ControllerMetrics();
+    for (Shard shard : shards) {
+      for (Boiler boiler : shard.boilers) {
+        if (boiler.controller instanceof MySteamBoilerController) {
+          ControllerMetrics metrics = ((MySteamBoilerController) boiler.controller).getMetrics();
+          if (metrics != null) {
+            total.add(metrics);
+          }
+        }
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Start clocking all registered boilers.
+   */
+  public synchronized void start() {
+    if (running) {
+      throw new IllegalStateException("fleet already started");
+    }
+    running = true;
+    long start = System.nanoTime();
+    for (Shard shard : shards) {
+      shard.start(start);
+    }
+  }
+
+  /**
+   * Stop clocking boilers, and wait for all workers to finish their current tick.
+   *
+   * @throws InterruptedException
+   *           If interrupted whilst waiting for the workers.
+   */
+  public void stop() throws InterruptedException {
+    running = false;
+    for (Shard shard : shards) {
+      shard.stop();
+    }
+  }
+
+  /**
+   * A single worker thread, together with the boilers it is responsible for.
+   */
+  private final class Shard implements Runnable {
+    private final ArrayList<Boiler> boilers = new ArrayList<>();
+    private final TickMetrics metrics = new TickMetrics();
+    // Boilers in a shard are clocked one at a time, so can share the same mailboxes, which are
+    // sized for the boiler with the most pumps.
+    private RingMailbox incoming = new RingMailbox(MySteamBoilerController.mailboxCapacity(0));
+    private RingMailbox outgoing = new RingMailbox(MySteamBoilerController.mailboxCapacity(0));
+    private final Thread thread;
+    private long start;
+
+    Shard(int index) {
+      this.thread = new Thread(this, "fleet-shard-" + index);
+      this.thread.setDaemon(true);
+    }
+
+    void add(Boiler boiler) {
+      boilers.add(boiler);
+      int capacity = MySteamBoilerController.mailboxCapacity(boiler.numberOfPumps);
+      if (capacity > incoming.capacity()) {
+        incoming = new RingMailbox(capacity);
+        outgoing = new RingMailbox(capacity);
+      }
+    }
+
+    void start(long startTime) {
+      this.start = startTime;
+      thread.start();
+    }
+
+    void stop() throws InterruptedException {
+      LockSupport.unpark(thread);
+      thread.join();
+    }
+
+    @Override
+    public void run() {
+      final int n = boilers.size();
+      if (n == 0) {
+        return;
+      }
+      // Boilers are spread evenly across the period, in order of registration.
+      final long spacing = period / n;
+      long round = start;
+      while (running) {
+        for (int i = 0; i != n && running; ++i) {
+          long deadline = round + (i * spacing);
+          long now = System.nanoTime();
+          while (now < deadline && running) {
+            LockSupport.parkNanos(deadline - now);
+            now = System.nanoTime();
+          }
+          if (running) {
+            tick(boilers.get(i), now - deadline);
+          }
+        }
+        round += period;
+      }
+    }
+
+    /**
+     * Perform a single transmission cycle for a given boiler.
+     *
+     * @param boiler
+     *          The boiler to clock.
+     * @param lateness
+     *          How long (in ns) after its deadline this tick started.
+     */
+    private void tick(Boiler boiler, long lateness) {
+      long before = System.nanoTime();
+      try {
+        incoming.clear();
+        outgoing.clear();
+        boiler.endpoint.transmit(incoming);
+        boiler.controller.clock(incoming, outgoing);
+        boiler.endpoint.receive(outgoing);
+        metrics.record(System.nanoTime() - before, lateness);
+      } catch (RuntimeException e) {
+        // One faulty boiler should not take down the rest of its shard.
+        metrics.recordError();
+      }
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package steam.boiler.fleet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * An endpoint where the messages for each cycle are handed off by some other thread (e.g. one
+ * reading from a physical device). Transmission blocks until the next batch of messages has been
+ * delivered, and so this is intended for use with {@link ThreadPerBoilerHost}.
+ */
+public class HandoffEndpoint implements BoilerEndpoint {
+  /**
+   * Batches delivered but not yet transmitted.
+   */
+  private final ArrayBlockingQueue<Mailbox> inbox;
+
+  /**
+   * Receives the controller's commands for each cycle.
+   */
+  private final Consumer<Mailbox> sink;
+
+  /**
+   * Construct a handoff endpoint.
+   *
+   * @param capacity
+   *          The maximum number of batches which can be delivered ahead of the controller.
+   * @param sink
+   *          Receives the controller's commands for each cycle.
+   */
+  public HandoffEndpoint(int capacity, Consumer<Mailbox> sink) {
+    this.inbox = new ArrayBlockingQueue<>(capacity);
+    this.sink = sink;
+  }
+
+  /**
+   * Deliver the messages from the physical units for the next cycle, blocking if the controller
+   * has fallen too far behind.
+   *
+   * @param incoming
+   *          The messages for the next cycle.
+   * @throws InterruptedException
+   *           If interrupted whilst waiting for space.
+   */
+  public void deliver(Mailbox incoming) throws InterruptedException {
+    inbox.put(incoming);
+  }
+
+  /**
+   * Block until the messages for the next cycle have been delivered. If interrupted whilst
+   * waiting, nothing is transmitted and the thread's interrupt status is set.
+   */
+  @Override
+  public void transmit(Mailbox incoming) {
+    try {
+      Mailbox delivered = inbox.take();
+      for (int i = 0; i != delivered.size(); ++i) {
+        incoming.send(delivered.read(i));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void receive(Mailbox outgoing) {
+    sink.accept(outgoing);
+  }
+}
@@ -0,0 +1,68 @@
+package steam.boiler.fleet;
+
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+
+/**
+ * An endpoint backed by a simulated set of physical units. The simulation is advanced by the
+ * amount of (simulated) time which has passed since the previous transmission.
+ */
+public class SimulatedEndpoint implements BoilerEndpoint {
+  /**
+   * The step size (in ms) used to advance the simulation, as for the tests.
+   */
+  private static final int GRANULARITY = 100;
+
+  /**
+   * The simulated physical units.
+   */
+  private final PhysicalUnits physicalUnits;
+
+  /**
+   * The amount of simulated time (in ms) between two transmissions.
+   */
+  private final int period;
+
+  /**
+   * Set once the first transmission has happened.
+   */
+  private boolean started;
+
+  /**
+   * Construct an endpoint for a given simulation.
+   *
+   * @param physicalUnits
+   *          The simulated physical units.
+   * @param period
+   *          The amount of simulated time (in ms) between two transmissions.
+   */
+  public SimulatedEndpoint(PhysicalUnits physicalUnits, int period) {
+    this.physicalUnits = physicalUnits;
+    this.period = period;
+  }
+
+  /**
+   * Get the simulated physical units.
+   *
+   * @return The simulation behind this endpoint.
+   */
+  public PhysicalUnits getPhysicalUnits() {
+    return physicalUnits;
+  }
+
+  @Override
+  public void transmit(Mailbox incoming) {
+    if (started) {
+      for (int elapsed = 0; elapsed < period; elapsed += GRANULARITY) {
+        physicalUnits.clock(Math.min(GRANULARITY, period - elapsed));
+      }
+    }
+    started = true;
+    physicalUnits.transmit(incoming);
+  }
+
+  @Override
+  public void receive(Mailbox outgoing) {
+    physicalUnits.receive(outgoing);
+  }
+}
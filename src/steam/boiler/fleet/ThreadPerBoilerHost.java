@@ -0,0 +1,261 @@
+package steam.boiler.fleet;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * An alternative to {@link FleetHost} where every boiler runs its control loop in a thread of its
+ * own. This allows endpoints to be written in a simple blocking style, since a boiler waiting on
+ * its physical units holds up nothing else (see {@link HandoffEndpoint}). When the JVM supports
+ * virtual threads, these can be used via {@link #virtualThreads()} to scale to large fleets;
+ * otherwise, this falls back to one platform thread per boiler.
+ *
+ * <p>
+ * The control loop of each boiler transmits, clocks the controller and then applies its commands.
+ * When a period is given, each iteration first sleeps until the boiler's next deadline; otherwise,
+ * the loop is paced entirely by its endpoint blocking in {@link BoilerEndpoint#transmit(Mailbox)}.
+ * </p>
+ */
+public class ThreadPerBoilerHost {
+  /**
+   * Used to create the thread running each boiler.
+   */
+  private final ThreadFactory factory;
+
+  /**
+   * The period (in ns) between two clock signals for the same boiler, or zero if the loop is paced
+   * by its endpoint.
+   */
+  private final long period;
+
+  /**
+   * The registered boilers.
+   */
+  private final ArrayList<Boiler> boilers = new ArrayList<>();
+
+  /**
+   * The threads running each boiler, once started.
+   */
+  private final ArrayList<Thread> threads = new ArrayList<>();
+
+  /**
+   * Statistics across all boilers.
+   */
+  private final TickMetrics metrics = new TickMetrics();
+
+  /**
+   * Set once the host has been started.
+   */
+  private volatile boolean running;
+
+  /**
+   * Construct a host whose boilers are paced by their endpoints.
+   *
+   * @param factory
+   *          Used to create the thread running each boiler.
+   */
+  public ThreadPerBoilerHost(ThreadFactory factory) {
+    this(factory, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Construct a host whose boilers are clocked with a given period.
+   *
+   * @param factory
+   *          Used to create the thread running each boiler.
+   * @param period
+   *          The period between two clock signals for the same boiler.
+   * @param unit
+   *          The unit of the period.
+   */
+  public ThreadPerBoilerHost(ThreadFactory factory, long period, TimeUnit unit) {
+    if (period < 0) {
+      throw new IllegalArgumentException("invalid period: " + period);
+    }
+    this.factory = factory;
+    this.period = unit.toNanos(period);
+  }
+
+  /**
+   * Get a factory for virtual threads. These are only available on JDK 21 or later, and are looked
+   * up reflectively so that this class still runs on earlier JVMs.
+   *
+   * @return A factory creating virtual threads.
+   * @throws UnsupportedOperationException
+   *           If the JVM does not support virtual threads.
+   */
+  public static ThreadFactory virtualThreads() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> type = Class.forName("java.lang.Thread$Builder");
+      return (ThreadFactory) type.getMethod("factory").invoke(builder);
+    } catch (NoSuchMethodException | ClassNotFoundException e) {
+      throw new UnsupportedOperationException("virtual threads not supported by this JVM");
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new UnsupportedOperationException("virtual threads not available", e);
+    }
+  }
+
+  /**
+   * Get a factory for ordinary (platform) daemon threads.
+   *
+   * @return A factory creating platform threads.
+   */
+  public static ThreadFactory platformThreads() {
+    return (Runnable r) -> {
+      Thread t = new Thread(r);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  /**
+   * Register a boiler with this host, using a fresh controller for the given characteristics.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   * @param endpoint
+   *          The physical units of the boiler.
+   * @return The identifier assigned to the boiler.
+   */
+  public int register(SteamBoilerCharacteristics configuration, BoilerEndpoint endpoint) {
+    MySteamBoilerController controller = new MySteamBoilerController(configuration);
+    int id = register(controller, configuration.getNumberOfPumps(), endpoint);
+    controller.setBoilerId(id);
+    return id;
+  }
+
+  /**
+   * Register a boiler with this host. Boilers can only be registered before the host is started.
+   *
+   * @param controller
+   *          The controller for the boiler.
+   * @param numberOfPumps
+   *          The number of pumps in the boiler, which determines the size of its mailboxes.
+   * @param endpoint
+   *          The physical units of the boiler.
+   * @return The identifier assigned to the boiler.
+   */
+  public synchronized int register(SteamBoilerController controller, int numberOfPumps,
+      BoilerEndpoint endpoint) {
+    if (running) {
+      throw new IllegalStateException("fleet already started");
+    }
+    int id = boilers.size();
+    boilers.add(new Boiler(id, controller, numberOfPumps, endpoint));
+    return id;
+  }
+
+  /**
+   * Get the number of boilers registered with this host.
+   *
+   * @return The number of boilers.
+   */
+  public synchronized int size() {
+    return boilers.size();
+  }
+
+  /**
+   * Get the tick statistics across all boilers.
+   *
+   * @return The statistics.
+   */
+  public TickMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Start a thread for every registered boiler.
+   */
+  public synchronized void start() {
+    if (running) {
+      throw new IllegalStateException("fleet already started");
+    }
+    running = true;
+    long start = System.nanoTime();
+    final int n = boilers.size();
+    for (int i = 0; i != n; ++i) {
+      final Boiler boiler = boilers.get(i);
+      // Boilers are spread evenly across the period, in order of registration.
+      final long phase = n == 0 ? 0 : (period / n) * i;
+      Thread thread = factory.newThread(() -> run(boiler, start + phase));
+      threads.add(thread);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stop all boilers, and wait for their threads to finish.
+   *
+   * @throws InterruptedException
+   *           If interrupted whilst waiting for the threads.
+   */
+  public void stop() throws InterruptedException {
+    ArrayList<Thread> ts;
+    synchronized (this) {
+      running = false;
+      ts = new ArrayList<>(threads);
+    }
+    for (Thread thread : ts) {
+      thread.interrupt();
+    }
+    for (Thread thread : ts) {
+      thread.join();
+    }
+  }
+
+  /**
+   * The control loop for a single boiler.
+   *
+   * @param boiler
+   *          The boiler to run.
+   * @param deadline
+   *          The deadline (in ns) for the first tick.
+   */
+  private void run(Boiler boiler, long deadline) {
+    int capacity = MySteamBoilerController.mailboxCapacity(boiler.numberOfPumps);
+    RingMailbox incoming = new RingMailbox(capacity);
+    RingMailbox outgoing = new RingMailbox(capacity);
+    while (running) {
+      long now = System.nanoTime();
+      long lateness = 0;
+      if (period != 0) {
+        while (now < deadline) {
+          LockSupport.parkNanos(deadline - now);
+          if (!running || Thread.currentThread().isInterrupted()) {
+            return;
+          }
+          now = System.nanoTime();
+        }
+        lateness = now - deadline;
+        deadline += period;
+      }
+      try {
+        incoming.clear();
+        outgoing.clear();
+        boiler.endpoint.transmit(incoming);
+        if (Thread.currentThread().isInterrupted()) {
+          // Endpoint gave up waiting because we're stopping.
+          return;
+        }
+        // Latency excludes any time spent blocked waiting for the physical units.
+        long before = System.nanoTime();
+        boiler.controller.clock(incoming, outgoing);
+        boiler.endpoint.receive(outgoing);
+        metrics.record(System.nanoTime() - before, lateness);
+      } catch (RuntimeException e) {
+        // One faulty boiler should not take down the rest of the fleet.
+        metrics.recordError();
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package steam.boiler.fleet;
+
+/**
+ * Latency statistics for the ticks executed by a single worker. Two figures are tracked for each
+ * tick: its latency (i.e. how long the tick took from transmission through to the controller's
+ * commands being applied), and its lateness (i.e. how long after its deadline the tick started).
+ * Recording is cheap and allocation free, so it can be left enabled on the hot path.
+ */
+public final class TickMetrics {
+  private long ticks;
+  private long errors;
+  private long totalLatency;
+  private long maxLatency;
+  private long totalLateness;
+  private long maxLateness;
+
+  /**
+   * Record a completed tick.
+   *
+   * @param latency
+   *          Time (in ns) taken by the tick.
+   * @param lateness
+   *          Time (in ns) between the tick's deadline and it actually starting.
+   */
+  public synchronized void record(long latency, long lateness) {
+    ticks = ticks + 1;
+    totalLatency += latency;
+    maxLatency = Math.max(maxLatency, latency);
+    totalLateness += lateness;
+    maxLateness = Math.max(maxLateness, lateness);
+  }
+
+  /**
+   * Record a tick which failed with an exception.
+   */
+  public synchronized void recordError() {
+    errors = errors + 1;
+  }
+
+  /**
+   * Get the number of ticks completed.
+   *
+   * @return The number of ticks.
+   */
+  public synchronized long getTicks() {
+    return ticks;
+  }
+
+  /**
+   * Get the number of ticks which failed.
+   *
+   * @return The number of failed ticks.
+   */
+  public synchronized long getErrors() {
+    return errors;
+  }
+
+  /**
+   * Get the mean tick latency.
+   *
+   * @return The mean latency (in ns), or zero if no ticks have completed.
+   */
+  public synchronized long getMeanLatency() {
+    return ticks == 0 ? 0 : totalLatency / ticks;
+  }
+
+  /**
+   * Get the worst tick latency.
+   *
+   * @return The maximum latency (in ns).
+   */
+  public synchronized long getMaxLatency() {
+    return maxLatency;
+  }
+
+  /**
+   * Get the mean tick lateness.
+   *
+   * @return The mean lateness (in ns), or zero if no ticks have completed.
+   */
+  public synchronized long getMeanLateness() {
+    return ticks == 0 ? 0 : totalLateness / ticks;
+  }
+
+  /**
+   * Get the worst tick lateness.
+   *
+   * @return The maximum lateness (in ns).
+   */
+  public synchronized long getMaxLateness() {
+    return maxLateness;
+  }
+
+  /**
+   * Merge the statistics of another worker into this one.
+   *
+   * @param other
+   *          The statistics to be added.
+   */
+  public void add(TickMetrics other) {
+    long otherTicks;
+    long otherErrors;
+    long otherTotalLatency;
+    long otherMaxLatency;
+    long otherTotalLateness;
+    long otherMaxLateness;
+    synchronized (other) {
+      otherTicks = other.ticks;
+      otherErrors = other.errors;
+      otherTotalLatency = other.totalLatency;
+      otherMaxLatency = other.maxLatency;
+      otherTotalLateness = other.totalLateness;
+      otherMaxLateness = other.maxLateness;
+    }
+    synchronized (this) {
+      ticks += otherTicks;
+      errors += otherErrors;
+      totalLatency += otherTotalLatency;
+      maxLatency = Math.max(maxLatency, otherMaxLatency);
+      totalLateness += otherTotalLateness;
+      maxLateness = Math.max(maxLateness, otherMaxLateness);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ticks=" + ticks + ", errors=" + errors + ", latency(mean/max)=" + getMeanLatency() + "/"
+        + maxLatency + "ns, lateness(mean/max)=" + getMeanLateness() + "/" + maxLateness + "ns";
+  }
+}
@@ -0,0 +1,4 @@
+@org.eclipse.jdt.annotation.NonNullByDefault
+package steam.boiler.fleet;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
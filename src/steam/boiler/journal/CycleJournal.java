@@ -0,0 +1,227 @@
+package steam.boiler.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * Records the input and output mailboxes of every controller cycle, for analysis after the fact.
+ * Cycles are encoded as fixed-width records (see {@link MessageRecords}) and appended to a
+ * memory-mapped segment file. When a cycle does not fit in the remainder of the current segment, a
+ * new segment is started. Hence, a cycle never spans two segments. Segments are numbered in the
+ * order they were written, and existing segments in the directory are never overwritten.
+ *
+ * <p>
+ * Recording a cycle writes directly into the mapped segment, and does not allocate. Writes are
+ * left to the operating system to persist, unless {@link #flush()} is called. A journal has a
+ * single writer, and is not safe for use by multiple threads.
+ * </p>
+ */
+public final class CycleJournal implements Closeable {
+  /**
+   * The default size (in bytes) of a segment.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * File name suffix of segments.
+   */
+  static final String SUFFIX = ".journal";
+
+  private final Path directory;
+  private final int segmentSize;
+
+  /**
+   * The segment currently being written, or null once closed.
+   */
+  private @Nullable MappedByteBuffer segment;
+
+  /**
+   * The number of the segment currently being written.
+   */
+  private int number;
+
+  /**
+   * The offset in the current segment of the next record.
+   */
+  private int position;
+
+  /**
+   * The number of cycles recorded.
+   */
+  private long cycles;
+
+  /**
+   * Construct a journal with segments of the default size.
+   *
+   * @param directory
+   *          The directory in which segments are written, which is created if necessary.
+   * @throws IOException
+   *           If the first segment cannot be created.
+   */
+  public CycleJournal(Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Construct a journal.
+   *
+   * @param directory
+   *          The directory in which segments are written, which is created if necessary.
+   * @param segmentSize
+   *          The size (in bytes) of each segment, which must be a multiple of the record size.
+   * @throws IOException
+   *           If the first segment cannot be created.
+   */
+  public CycleJournal(Path directory, int segmentSize) throws IOException {
+    if (segmentSize <= 0 || (segmentSize % MessageRecords.RECORD_SIZE) != 0) {
+      throw new IllegalArgumentException("invalid segment size " + segmentSize);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    Files.createDirectories(directory);
+    List<Path> existing = segments(directory);
+    this.number = existing.isEmpty() ? 0 : number(existing.get(existing.size() - 1)) + 1;
+    this.segment = map(number);
+  }
+
+  /**
+   * Record a single cycle of the controller.
+   *
+   * @param incoming
+   *          The messages received by the controller.
+   * @param outgoing
+   *          The messages sent by the controller in response.
+   * @throws UncheckedIOException
+   *           If a new segment was required but could not be created.
+   */
+  public void record(Mailbox incoming, Mailbox outgoing) {
+    final int inputs = incoming.size();
+    final int outputs = outgoing.size();
+    final int length = (1 + inputs + outputs) * MessageRecords.RECORD_SIZE;
+    MappedByteBuffer buffer = this.segment;
+    if (buffer == null) {
+      throw new IllegalStateException("journal closed");
+    } else if (length > segmentSize || inputs > 0xFFFF) {
+      throw new IllegalArgumentException("cycle too large (" + length + " bytes)");
+    } else if ((position + length) > segmentSize) {
+      buffer = roll();
+    }
+    int offset = position + MessageRecords.RECORD_SIZE;
+    for (int i = 0; i != inputs; ++i) {
+      MessageRecords.putMessage(buffer, offset, MessageRecords.INPUT, incoming.read(i));
+      offset += MessageRecords.RECORD_SIZE;
+    }
+    for (int i = 0; i != outputs; ++i) {
+      MessageRecords.putMessage(buffer, offset, MessageRecords.OUTPUT, outgoing.read(i));
+      offset += MessageRecords.RECORD_SIZE;
+    }
+    // Write the cycle record last, so the cycle only becomes visible once complete.
+    MessageRecords.putCycle(buffer, position, inputs, outputs, System.currentTimeMillis());
+    position = offset;
+    cycles = cycles + 1;
+  }
+
+  /**
+   * Get the number of cycles recorded by this journal.
+   *
+   * @return The number of cycles.
+   */
+  public long getCycles() {
+    return cycles;
+  }
+
+  /**
+   * Get the number of the segment currently being written.
+   *
+   * @return The segment number.
+   */
+  public int getSegment() {
+    return number;
+  }
+
+  /**
+   * Force everything recorded so far out to the storage device.
+   */
+  public void flush() {
+    MappedByteBuffer buffer = segment;
+    if (buffer != null) {
+      buffer.force();
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+    segment = null;
+  }
+
+  private MappedByteBuffer roll() {
+    flush();
+    try {
+      MappedByteBuffer buffer = map(number + 1);
+      number = number + 1;
+      position = 0;
+      segment = buffer;
+      return buffer;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private MappedByteBuffer map(int n) throws IOException {
+    try (FileChannel channel = FileChannel.open(segment(directory, n),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+  }
+
+  /**
+   * Determine the path of a given segment.
+   *
+   * @param directory
+   *          The journal directory.
+   * @param n
+   *          The segment number.
+   * @return The path of that segment.
+   */
+  static Path segment(Path directory, int n) {
+    return directory.resolve(String.format("%08d", n) + SUFFIX);
+  }
+
+  /**
+   * List the segments in a journal directory, in the order they were written.
+   *
+   * @param directory
+   *          The journal directory.
+   * @return The segments found.
+   * @throws IOException
+   *           If the directory cannot be listed.
+   */
+  static List<Path> segments(Path directory) throws IOException {
+    List<Path> segments = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).forEach(segments::add);
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static int number(Path segment) {
+    String name = segment.getFileName().toString();
+    return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+  }
+}
@@ -0,0 +1,105 @@
+package steam.boiler.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * Reads back the cycles recorded by a {@link CycleJournal}, in the order they were recorded. Unlike
+ * recording, reading reconstructs every message and so does allocate.
+ */
+public final class JournalReader {
+  private final List<Path> segments;
+
+  /**
+   * The index of the next segment to open.
+   */
+  private int next;
+
+  /**
+   * The segment currently being read, or null if none.
+   */
+  private @Nullable MappedByteBuffer segment;
+
+  /**
+   * The offset in the current segment of the next record.
+   */
+  private int position;
+
+  /**
+   * The time of the last cycle read.
+   */
+  private long time;
+
+  /**
+   * Construct a reader for all segments currently in a journal directory.
+   *
+   * @param directory
+   *          The journal directory.
+   * @throws IOException
+   *           If the directory cannot be listed.
+   */
+  public JournalReader(Path directory) throws IOException {
+    this.segments = CycleJournal.segments(directory);
+  }
+
+  /**
+   * Read the next cycle from the journal.
+   *
+   * @param incoming
+   *          The mailbox into which the messages received by the controller are written.
+   * @param outgoing
+   *          The mailbox into which the messages sent by the controller are written.
+   * @return True if a cycle was read, or false if the end of the journal was reached.
+   * @throws IOException
+   *           If a segment cannot be read.
+   */
+  public boolean next(Mailbox incoming, Mailbox outgoing) throws IOException {
+    MappedByteBuffer buffer = this.segment;
+    while (buffer == null || position >= buffer.capacity()
+        || MessageRecords.getTag(buffer, position) != MessageRecords.CYCLE) {
+      if (next == segments.size()) {
+        return false;
+      }
+      buffer = map(segments.get(next++));
+      segment = buffer;
+      position = 0;
+    }
+    int inputs = MessageRecords.getInputs(buffer, position);
+    int outputs = MessageRecords.getOutputs(buffer, position);
+    time = MessageRecords.getTime(buffer, position);
+    int offset = position + MessageRecords.RECORD_SIZE;
+    for (int i = 0; i != inputs + outputs; ++i) {
+      if (MessageRecords.getTag(buffer, offset) == MessageRecords.INPUT) {
+        incoming.send(MessageRecords.getMessage(buffer, offset));
+      } else {
+        outgoing.send(MessageRecords.getMessage(buffer, offset));
+      }
+      offset += MessageRecords.RECORD_SIZE;
+    }
+    position = offset;
+    return true;
+  }
+
+  /**
+   * Get the time at which the last cycle read was recorded.
+   *
+   * @return The time (in ms since the epoch).
+   */
+  public long getTime() {
+    return time;
+  }
+
+  private static MappedByteBuffer map(Path segment) throws IOException {
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package steam.boiler.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MessageParameter;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+
+/**
+ * Re-drives a fresh controller with the incoming mailboxes recorded in a journal, and checks it
+ * responds exactly as recorded. The physical units are not involved, since their side of every
+ * exchange is already in the journal. Hence, replay runs as fast as the controller itself allows.
+ * This relies on the controller being deterministic, which is the case provided it depends only on
+ * the messages it receives.
+ *
+ * <p>
+ * Each journal is replayed by a single thread, but separate journals are independent and may be
+ * replayed in parallel.
+ * </p>
+ */
+public final class JournalReplay {
+  /**
+   * The largest number of messages in either direction of a replayed cycle.
+   */
+  private static final int MAILBOX_CAPACITY = 1 << 16;
+
+  /**
+   * Creates a fresh controller for each journal.
+   */
+  private final Supplier<? extends SteamBoilerController> controllers;
+
+  /**
+   * Construct a replay engine.
+   *
+   * @param controllers
+   *          Creates the controller used to replay each journal, which must be configured as the
+   *          recorded controller was.
+   */
+  public JournalReplay(Supplier<? extends SteamBoilerController> controllers) {
+    this.controllers = controllers;
+  }
+
+  /**
+   * Replay a single journal.
+   *
+   * @param journal
+   *          The journal directory.
+   * @return The outcome of replaying it.
+   * @throws IOException
+   *           If the journal cannot be read.
+   */
+  public Result replay(Path journal) throws IOException {
+    SteamBoilerController controller = controllers.get();
+    JournalReader reader = new JournalReader(journal);
+    RingMailbox incoming = new RingMailbox(MAILBOX_CAPACITY);
+    RingMailbox recorded = new RingMailbox(MAILBOX_CAPACITY);
+    RingMailbox outgoing = new RingMailbox(MAILBOX_CAPACITY);
+    Result result = new Result(journal);
+    while (reader.next(incoming, recorded)) {
+      controller.clock(incoming, outgoing);
+      if (!same(recorded, outgoing)) {
+        result.diverged(recorded, outgoing);
+      }
+      result.cycles = result.cycles + 1;
+      incoming.clear();
+      recorded.clear();
+      outgoing.clear();
+    }
+    return result;
+  }
+
+  /**
+   * Replay several journals in parallel, using the common pool.
+   *
+   * @param journals
+   *          The journal directories.
+   * @return The outcome of replaying each journal, in the order given.
+   */
+  public List<Result> replay(List<Path> journals) {
+    return replay(journals, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Replay several journals in parallel.
+   *
+   * @param journals
+   *          The journal directories.
+   * @param pool
+   *          The pool on which journals are replayed.
+   * @return The outcome of replaying each journal, in the order given.
+   * @throws UncheckedIOException
+   *           If any journal cannot be read.
+   */
+  public List<Result> replay(List<Path> journals, ForkJoinPool pool) {
+    List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+    for (Path journal : journals) {
+      tasks.add(pool.submit(() -> {
+        try {
+          return replay(journal);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }));
+    }
+    List<Result> results = new ArrayList<>();
+    for (ForkJoinTask<Result> task : tasks) {
+      results.add(task.join());
+    }
+    return results;
+  }
+
+  /**
+   * Check two mailboxes hold the same messages in the same order.
+   *
+   * @param expected
+   *          The recorded mailbox.
+   * @param actual
+   *          The mailbox produced on replay.
+   * @return True if they match.
+   */
+  private static boolean same(Mailbox expected, Mailbox actual) {
+    if (expected.size() != actual.size()) {
+      return false;
+    }
+    for (int i = 0; i != expected.size(); ++i) {
+      if (!same(expected.read(i), actual.read(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean same(Message expected, Message actual) {
+    if (expected.getKind() != actual.getKind()) {
+      return false;
+    }
+    switch (MessageParameter.of(expected.getKind())) {
+      case MODE:
+        return expected.getModeParameter() == actual.getModeParameter();
+      case INTEGER:
+        return expected.getIntegerParameter() == actual.getIntegerParameter();
+      case BOOLEAN:
+        return expected.getBooleanParameter() == actual.getBooleanParameter();
+      case DOUBLE:
+        return Double.compare(expected.getDoubleParameter(), actual.getDoubleParameter()) == 0;
+      case INTEGER_BOOLEAN:
+        return expected.getIntegerParameter() == actual.getIntegerParameter()
+            && expected.getBooleanParameter() == actual.getBooleanParameter();
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * The outcome of replaying a single journal.
+   */
+  public static final class Result {
+    private final Path journal;
+    private long cycles;
+    private long divergences;
+    private long firstDivergence = -1;
+    private @Nullable String expected;
+    private @Nullable String actual;
+
+    Result(Path journal) {
+      this.journal = journal;
+    }
+
+    private void diverged(Mailbox recorded, Mailbox replayed) {
+      if (divergences == 0) {
+        firstDivergence = cycles;
+        expected = recorded.toString();
+        actual = replayed.toString();
+      }
+      divergences = divergences + 1;
+    }
+
+    /**
+     * Get the journal which was replayed.
+     *
+     * @return The journal directory.
+     */
+    public Path getJournal() {
+      return journal;
+    }
+
+    /**
+     * Get the number of cycles replayed.
+     *
+     * @return The number of cycles.
+     */
+    public long getCycles() {
+      return cycles;
+    }
+
+    /**
+     * Get the number of cycles whose output differed from that recorded.
+     *
+     * @return The number of divergent cycles.
+     */
+    public long getDivergences() {
+      return divergences;
+    }
+
+    /**
+     * Get the first cycle whose output differed from that recorded. Cycles are numbered from zero.
+     *
+     * @return The cycle number, or -1 if there were no divergences.
+     */
+    public long getFirstDivergence() {
+      return firstDivergence;
+    }
+
+    /**
+     * Determine whether every cycle matched its recording.
+     *
+     * @return True if no cycle diverged.
+     */
+    public boolean isIdentical() {
+      return divergences == 0;
+    }
+
+    @Override
+    public String toString() {
+      String r = journal + ": " + cycles + " cycles, " + divergences + " divergences";
+      if (divergences > 0) {
+        r += " (first at cycle " + firstDivergence + ", expected " + expected + " but got "
+            + actual + ")";
+      }
+      return r;
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package steam.boiler.journal;
+
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+
+/**
+ * Wraps a controller such that every cycle it executes is recorded in a journal.
+ */
+public final class JournalingController implements SteamBoilerController {
+  private final SteamBoilerController controller;
+  private final CycleJournal journal;
+
+  /**
+   * Construct a journaling controller.
+   *
+   * @param controller
+   *          The controller making decisions.
+   * @param journal
+   *          The journal in which to record each cycle.
+   */
+  public JournalingController(SteamBoilerController controller, CycleJournal journal) {
+    this.controller = controller;
+    this.journal = journal;
+  }
+
+  @Override
+  public String getStatusMessage() {
+    return controller.getStatusMessage();
+  }
+
+  @Override
+  public void clock(Mailbox incoming, Mailbox outgoing) {
+    controller.clock(incoming, outgoing);
+    journal.record(incoming, outgoing);
+  }
+}
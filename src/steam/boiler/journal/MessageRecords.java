@@ -0,0 +1,219 @@
+package steam.boiler.journal;
+
+import java.nio.ByteBuffer;
+
+import steam.boiler.core.MessageParameter;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * The binary encoding of messages used by the journal. Every record has the same fixed width, so
+ * that records can be located without parsing those before them. A message record is laid out as
+ * follows:
+ *
+ * <pre>
+ * +0  byte    tag (INPUT or OUTPUT)
+ * +1  byte    kind ordinal
+ * +2  byte    mode ordinal (or -1)
+ * +3  byte    boolean parameter (0 or 1)
+ * +4  int     integer parameter
+ * +8  double  double parameter
+ * </pre>
+ *
+ * <p>
+ * A cycle record precedes the messages of each cycle, and is laid out as follows:
+ * </p>
+ *
+ * <pre>
+ * +0  byte    tag (CYCLE)
+ * +1  byte    unused
+ * +2  short   number of input messages
+ * +4  int     number of output messages
+ * +8  long    time (in ms since the epoch) the cycle was recorded
+ * </pre>
+ *
+ * <p>
+ * All values are big endian. A zero tag marks the end of the records in a segment. Since newly
+ * mapped segments are zero filled, this marker never has to be written explicitly.
+ * </p>
+ */
+public final class MessageRecords {
+  /**
+   * The width (in bytes) of every record.
+   */
+  public static final int RECORD_SIZE = 16;
+
+  /**
+   * Tag marking the end of records.
+   */
+  public static final byte END = 0;
+
+  /**
+   * Tag of a cycle record.
+   */
+  public static final byte CYCLE = 1;
+
+  /**
+   * Tag of a message received by the controller.
+   */
+  public static final byte INPUT = 2;
+
+  /**
+   * Tag of a message sent by the controller.
+   */
+  public static final byte OUTPUT = 3;
+
+  private static final MessageKind[] KINDS = MessageKind.values();
+  private static final Mode[] MODES = Mode.values();
+
+  private MessageRecords() {
+  }
+
+  /**
+   * Write a cycle record.
+   *
+   * @param buffer
+   *          The buffer to write into.
+   * @param offset
+   *          The position in the buffer of the record.
+   * @param inputs
+   *          The number of input messages in the cycle.
+   * @param outputs
+   *          The number of output messages in the cycle.
+   * @param time
+   *          The time (in ms since the epoch) of the cycle.
+   */
+  public static void putCycle(ByteBuffer buffer, int offset, int inputs, int outputs, long time) {
+    buffer.put(offset, CYCLE);
+    buffer.put(offset + 1, (byte) 0);
+    buffer.putShort(offset + 2, (short) inputs);
+    buffer.putInt(offset + 4, outputs);
+    buffer.putLong(offset + 8, time);
+  }
+
+  /**
+   * Write a message record. Only the parameters carried by the message's kind are read from it;
+   * any others are written as zero.
+   *
+   * @param buffer
+   *          The buffer to write into.
+   * @param offset
+   *          The position in the buffer of the record.
+   * @param tag
+   *          Either {@link #INPUT} or {@link #OUTPUT}.
+   * @param message
+   *          The message to write.
+   */
+  public static void putMessage(ByteBuffer buffer, int offset, byte tag, Message message) {
+    MessageKind kind = message.getKind();
+    byte mode = -1;
+    boolean b = false;
+    int n = 0;
+    double v = 0;
+    switch (MessageParameter.of(kind)) {
+      case MODE:
+        mode = (byte) message.getModeParameter().ordinal();
+        break;
+      case INTEGER:
+        n = message.getIntegerParameter();
+        break;
+      case BOOLEAN:
+        b = message.getBooleanParameter();
+        break;
+      case DOUBLE:
+        v = message.getDoubleParameter();
+        break;
+      case INTEGER_BOOLEAN:
+        n = message.getIntegerParameter();
+        b = message.getBooleanParameter();
+        break;
+      default:
+        break;
+    }
+    // The first eight bytes are written together, which relies on the buffer being big endian.
+    long head = ((long) tag << 56) | ((long) kind.ordinal() << 48) | ((mode & 0xFFL) << 40)
+        | (b ? 1L << 32 : 0) | (n & 0xFFFFFFFFL);
+    buffer.putLong(offset, head);
+    buffer.putDouble(offset + 8, v);
+  }
+
+  /**
+   * Get the tag of a record.
+   *
+   * @param buffer
+   *          The buffer to read from.
+   * @param offset
+   *          The position in the buffer of the record.
+   * @return The record's tag.
+   */
+  public static byte getTag(ByteBuffer buffer, int offset) {
+    return buffer.get(offset);
+  }
+
+  /**
+   * Get the number of input messages from a cycle record.
+   *
+   * @param buffer
+   *          The buffer to read from.
+   * @param offset
+   *          The position in the buffer of the record.
+   * @return The number of input messages.
+   */
+  public static int getInputs(ByteBuffer buffer, int offset) {
+    return buffer.getShort(offset + 2) & 0xFFFF;
+  }
+
+  /**
+   * Get the number of output messages from a cycle record.
+   *
+   * @param buffer
+   *          The buffer to read from.
+   * @param offset
+   *          The position in the buffer of the record.
+   * @return The number of output messages.
+   */
+  public static int getOutputs(ByteBuffer buffer, int offset) {
+    return buffer.getInt(offset + 4);
+  }
+
+  /**
+   * Get the time from a cycle record.
+   *
+   * @param buffer
+   *          The buffer to read from.
+   * @param offset
+   *          The position in the buffer of the record.
+   * @return The time (in ms since the epoch) of the cycle.
+   */
+  public static long getTime(ByteBuffer buffer, int offset) {
+    return buffer.getLong(offset + 8);
+  }
+
+  /**
+   * Reconstruct the message held in a message record.
+   *
+   * @param buffer
+   *          The buffer to read from.
+   * @param offset
+   *          The position in the buffer of the record.
+   * @return The message.
+   */
+  public static Message getMessage(ByteBuffer buffer, int offset) {
+    MessageKind kind = KINDS[buffer.get(offset + 1)];
+    switch (MessageParameter.of(kind)) {
+      case MODE:
+        return new Message(kind, MODES[buffer.get(offset + 2)]);
+      case INTEGER:
+        return new Message(kind, buffer.getInt(offset + 4));
+      case BOOLEAN:
+        return new Message(kind, buffer.get(offset + 3) != 0);
+      case DOUBLE:
+        return new Message(kind, buffer.getDouble(offset + 8));
+      case INTEGER_BOOLEAN:
+        return new Message(kind, buffer.getInt(offset + 4), buffer.get(offset + 3) != 0);
+      default:
+        return new Message(kind);
+    }
+  }
+}
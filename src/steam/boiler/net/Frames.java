@@ -0,0 +1,96 @@
+package steam.boiler.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The framing used by the gateway to batch the mailboxes of several boilers together. A frame is
+ * laid out as follows, where each mailbox is encoded by {@link WireCodec}:
+ *
+ * <pre>
+ * int    length (in bytes) of the remainder of the frame
+ * short  number of boilers
+ * for each boiler:
+ *   int      boiler identifier
+ *   mailbox  messages for that boiler
+ * </pre>
+ *
+ * <p>
+ * Frames sent to the gateway hold the incoming mailbox of each boiler, and the gateway responds
+ * with a frame holding the outgoing mailbox of each boiler, in the same order.
+ * </p>
+ */
+final class Frames {
+  /**
+   * The size (in bytes) of a frame's header.
+   */
+  static final int HEADER = 6;
+
+  /**
+   * The largest number of boilers in a single frame.
+   */
+  static final int MAX_BOILERS = 0xFFFF;
+
+  private Frames() {
+  }
+
+  /**
+   * Begin writing a frame at the buffer's position, leaving space for the header.
+   *
+   * @param buffer
+   *          The buffer to write into.
+   * @return The position of the frame, which must be passed to {@link #finish}.
+   */
+  static int begin(ByteBuffer buffer) {
+    int start = buffer.position();
+    buffer.position(start + HEADER);
+    return start;
+  }
+
+  /**
+   * Complete the header of a frame once all boilers have been written.
+   *
+   * @param buffer
+   *          The buffer being written, whose position is the end of the frame.
+   * @param start
+   *          The position of the frame, as returned by {@link #begin}.
+   * @param boilers
+   *          The number of boilers written.
+   */
+  static void finish(ByteBuffer buffer, int start, int boilers) {
+    buffer.putInt(start, buffer.position() - start - 4);
+    buffer.putShort(start + 4, (short) boilers);
+  }
+
+  /**
+   * Determine whether a complete frame is available at the buffer's position. This does not
+   * change the buffer's position.
+   *
+   * @param buffer
+   *          The buffer to check.
+   * @return The total size (in bytes) of the frame, or -1 if it has not yet fully arrived.
+   * @throws IllegalArgumentException
+   *           If the frame can never fit in the buffer.
+   */
+  static int complete(ByteBuffer buffer) {
+    int start = buffer.position();
+    if (buffer.limit() - start < HEADER) {
+      return -1;
+    }
+    int length = buffer.getInt(start) + 4;
+    if (length < HEADER || length > buffer.capacity()) {
+      throw new IllegalArgumentException("invalid frame length " + length);
+    }
+    return (buffer.limit() - start) < length ? -1 : length;
+  }
+
+  /**
+   * Get the number of boilers in the frame at the buffer's position.
+   *
+   * @param buffer
+   *          The buffer holding a complete frame.
+   * @return The number of boilers.
+   */
+  static int boilers(ByteBuffer buffer) {
+    return buffer.getShort(buffer.position() + 4) & 0xFFFF;
+  }
+}
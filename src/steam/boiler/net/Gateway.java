@@ -0,0 +1,457 @@
+package steam.boiler.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.fleet.TickMetrics;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A TCP gateway through which remote physical units exchange messages with controllers hosted in
+ * this JVM. A remote sends a frame (see {@link Frames}) holding the incoming mailbox for one or
+ * more boilers, and the gateway clocks each boiler's controller in turn before responding with a
+ * frame of their outgoing mailboxes. Thus, a single connection can carry many boilers, and the
+ * traffic for every boiler in a frame costs only one round trip.
+ *
+ * <p>
+ * All connections are served by a single thread using a {@link Selector}, so controllers are never
+ * clocked concurrently. Each connection has a fixed pair of buffers, and a frame is only processed
+ * once its whole response is guaranteed to fit in the output buffer. Otherwise, reading from that
+ * connection is paused until the remote has caught up with the responses already sent. Latency
+ * statistics are kept per connection, where the lateness of a frame is the time it waited after
+ * arriving, and its latency the time taken to clock every boiler in it.
+ * </p>
+ */
+public final class Gateway {
+  /**
+   * The default size (in bytes) of the input and output buffers of each connection.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  private final InetSocketAddress address;
+  private final int bufferSize;
+
+  /**
+   * The registered boilers, indexed by identifier.
+   */
+  private final ArrayList<Hosted> boilers = new ArrayList<>();
+
+  /**
+   * Statistics for each open connection.
+   */
+  private final ConcurrentHashMap<SocketAddress, TickMetrics> connections =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Statistics accumulated from connections already closed.
+   */
+  private final TickMetrics closed = new TickMetrics();
+
+  /**
+   * The largest number of pumps of any registered boiler.
+   */
+  private int maxPumps;
+
+  /**
+   * An upper bound on the number of bytes needed for any single boiler in a response.
+   */
+  private int maxResponse = maxResponse(0);
+
+  /**
+   * Boilers are clocked one at a time, so share the same outgoing mailbox. This is sized for the
+   * boiler with the most pumps as they are registered.
+   */
+  private RingMailbox outgoing = new RingMailbox(MySteamBoilerController.mailboxCapacity(0));
+
+  /**
+   * Used to skip over the messages sent to an unknown boiler.
+   */
+  private final WireMailbox unknown = new WireMailbox(0);
+
+  private @Nullable ServerSocketChannel server;
+  private @Nullable Selector selector;
+  private @Nullable Thread thread;
+  private volatile boolean running;
+
+  /**
+   * Construct a gateway with buffers of the default size.
+   *
+   * @param address
+   *          The address to listen on (a port of zero picks any free port).
+   */
+  public Gateway(InetSocketAddress address) {
+    this(address, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Construct a gateway.
+   *
+   * @param address
+   *          The address to listen on (a port of zero picks any free port).
+   * @param bufferSize
+   *          The size (in bytes) of the input and output buffers of each connection, which limits
+   *          the size of a frame.
+   */
+  public Gateway(InetSocketAddress address, int bufferSize) {
+    if (bufferSize < Frames.HEADER + maxResponse(0)) {
+      throw new IllegalArgumentException("buffer size too small: " + bufferSize);
+    }
+    this.address = address;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Register a boiler with this gateway, using a fresh controller for the given characteristics.
+   *
+   * @param configuration
+   *          The boiler characteristics.
+   * @return The identifier assigned to the boiler.
+   */
+  public int register(SteamBoilerCharacteristics configuration) {
+    MySteamBoilerController controller = new MySteamBoilerController(configuration);
+    int id = register(controller, configuration.getNumberOfPumps());
+    controller.setBoilerId(id);
+    return id;
+  }
+
+  /**
+   * Register a boiler with this gateway. Boilers can only be registered before the gateway is
+   * started.
+   *
+   * @param controller
+   *          The controller for the boiler.
+   * @param numberOfPumps
+   *          The number of pumps in the boiler.
+   * @return The identifier assigned to the boiler, which remotes use to address it.
+   * @throws IllegalArgumentException
+   *           If a response for a boiler with this many pumps might not fit in a buffer.
+   */
+  public synchronized int register(SteamBoilerController controller, int numberOfPumps) {
+    if (running) {
+      throw new IllegalStateException("gateway already started");
+    }
+    int response = maxResponse(numberOfPumps);
+    if (Frames.HEADER + (long) response > bufferSize) {
+      throw new IllegalArgumentException("buffer size too small for " + numberOfPumps + " pumps");
+    }
+    if (numberOfPumps > maxPumps) {
+      maxPumps = numberOfPumps;
+      maxResponse = response;
+      outgoing = new RingMailbox(MySteamBoilerController.mailboxCapacity(numberOfPumps));
+    }
+    boilers.add(new Hosted(controller, new WireMailbox(numberOfPumps)));
+    return boilers.size() - 1;
+  }
+
+  /**
+   * Get the number of boilers registered with this gateway.
+   *
+   * @return The number of boilers.
+   */
+  public synchronized int size() {
+    return boilers.size();
+  }
+
+  /**
+   * Get the address this gateway is listening on.
+   *
+   * @return The bound address.
+   * @throws IOException
+   *           If the address cannot be determined.
+   */
+  public InetSocketAddress getAddress() throws IOException {
+    ServerSocketChannel channel = server;
+    if (channel == null) {
+      throw new IllegalStateException("gateway not started");
+    }
+    return (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  /**
+   * Get the statistics of every open connection.
+   *
+   * @return A copy of the statistics, keyed by remote address.
+   */
+  public Map<SocketAddress, TickMetrics> getConnectionMetrics() {
+    return Collections.unmodifiableMap(new HashMap<>(connections));
+  }
+
+  /**
+   * Get the statistics across all connections, whether open or closed.
+   *
+   * @return The combined statistics.
+   */
+  public TickMetrics getMetrics() {
+    TickMetrics total = new TickMetrics();
+    total.add(closed);
+    for (TickMetrics metrics : connections.values()) {
+      total.add(metrics);
+    }
+    return total;
+  }
+
+  /**
+   * Start accepting connections.
+   *
+   * @throws IOException
+   *           If the gateway cannot listen on its address.
+   */
+  public synchronized void start() throws IOException {
+    if (running) {
+      throw new IllegalStateException("gateway already started");
+    }
+    Selector s = Selector.open();
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.bind(address);
+    channel.configureBlocking(false);
+    channel.register(s, SelectionKey.OP_ACCEPT);
+    this.selector = s;
+    this.server = channel;
+    this.running = true;
+    Thread t = new Thread(this::run, "gateway");
+    t.setDaemon(true);
+    this.thread = t;
+    t.start();
+  }
+
+  /**
+   * Stop the gateway, closing every connection.
+   *
+   * @throws InterruptedException
+   *           If interrupted whilst waiting for the gateway thread.
+   */
+  public void stop() throws InterruptedException {
+    running = false;
+    Selector s = selector;
+    Thread t = thread;
+    if (s != null && t != null) {
+      s.wakeup();
+      t.join();
+    }
+  }
+
+  private void run() {
+    Selector s = selector;
+    ServerSocketChannel channel = server;
+    if (s == null || channel == null) {
+      return;
+    }
+    try {
+      while (running) {
+        s.select();
+        Iterator<SelectionKey> keys = s.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          } else if (key.isAcceptable()) {
+            accept(s, channel);
+          } else {
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isReadable()) {
+                connection.read(key);
+              } else if (key.isWritable()) {
+                connection.write(key);
+              }
+            } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+              // Either the remote went away, or broke the protocol
+              connection.close(key);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      // Selector failed, so nothing more can be done
+    } finally {
+      for (SelectionKey key : s.keys()) {
+        if (key.attachment() instanceof Connection) {
+          ((Connection) key.attachment()).close(key);
+        }
+      }
+      try {
+        channel.close();
+        s.close();
+      } catch (IOException e) {
+        // Already shutting down
+      }
+    }
+  }
+
+  /**
+   * Determine an upper bound on the number of bytes needed for a single boiler in a response.
+   *
+   * @param numberOfPumps
+   *          The number of pumps in the boiler.
+   * @return The number of bytes for its identifier, message count and messages.
+   */
+  private static int maxResponse(int numberOfPumps) {
+    return 4 + 2 + (MySteamBoilerController.mailboxCapacity(numberOfPumps) * 9);
+  }
+
+  private void accept(Selector s, ServerSocketChannel channel) throws IOException {
+    SocketChannel socket = channel.accept();
+    if (socket != null) {
+      socket.configureBlocking(false);
+      socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      Connection connection = new Connection(socket);
+      socket.register(s, SelectionKey.OP_READ, connection);
+      connections.put(connection.remote, connection.metrics);
+    }
+  }
+
+  /**
+   * A registered boiler, along with the view its incoming messages are decoded into.
+   */
+  private static final class Hosted {
+    final SteamBoilerController controller;
+    final WireMailbox incoming;
+
+    Hosted(SteamBoilerController controller, WireMailbox incoming) {
+      this.controller = controller;
+      this.incoming = incoming;
+    }
+  }
+
+  /**
+   * The state of a single connection.
+   */
+  private final class Connection {
+    final SocketChannel channel;
+    final SocketAddress remote;
+    final TickMetrics metrics = new TickMetrics();
+    /**
+     * Bytes received but not yet processed, ready for reading into.
+     */
+    final ByteBuffer in;
+    /**
+     * Bytes of responses not yet sent, ready for writing into.
+     */
+    final ByteBuffer out;
+    /**
+     * When the bytes currently in the input buffer arrived.
+     */
+    long arrived;
+
+    Connection(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.remote = channel.getRemoteAddress();
+      this.in = ByteBuffer.allocateDirect(bufferSize);
+      this.out = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void read(SelectionKey key) throws IOException {
+      if (channel.read(in) < 0) {
+        close(key);
+        return;
+      }
+      arrived = System.nanoTime();
+      process();
+      flush(key);
+    }
+
+    void write(SelectionKey key) throws IOException {
+      flush(key);
+      if (key.isValid() && out.position() == 0) {
+        // Responses have drained, so frames held back can now be processed
+        process();
+        flush(key);
+      }
+    }
+
+    /**
+     * Process every complete frame in the input buffer for which there is space to respond.
+     */
+    private void process() {
+      in.flip();
+      int frame;
+      while ((frame = Frames.complete(in)) > 0) {
+        int n = Frames.boilers(in);
+        if (Frames.HEADER + ((long) n * maxResponse) > out.capacity()) {
+          throw new IllegalArgumentException("frame too large");
+        } else if (Frames.HEADER + ((long) n * maxResponse) > out.remaining()) {
+          break;
+        }
+        long start = System.nanoTime();
+        int end = in.position() + frame;
+        int limit = in.limit();
+        in.limit(end);
+        in.position(in.position() + Frames.HEADER);
+        int response = Frames.begin(out);
+        for (int i = 0; i != n; ++i) {
+          clock(in.getInt());
+        }
+        if (in.position() != end) {
+          throw new IllegalArgumentException("frame length mismatch");
+        }
+        Frames.finish(out, response, n);
+        in.limit(limit);
+        metrics.record(System.nanoTime() - start, start - arrived);
+      }
+      in.compact();
+    }
+
+    /**
+     * Clock a single boiler whose incoming mailbox is at the input buffer's position, writing its
+     * response to the output buffer.
+     */
+    private void clock(int id) {
+      Hosted boiler = id >= 0 && id < boilers.size() ? boilers.get(id) : null;
+      WireMailbox incoming = boiler != null ? boiler.incoming : unknown;
+      WireCodec.decode(in, incoming);
+      outgoing.clear();
+      if (boiler == null) {
+        metrics.recordError();
+      } else {
+        try {
+          boiler.controller.clock(incoming, outgoing);
+        } catch (RuntimeException e) {
+          metrics.recordError();
+          outgoing.clear();
+        }
+      }
+      out.putInt(id);
+      WireCodec.encode(outgoing, out);
+    }
+
+    private void flush(SelectionKey key) throws IOException {
+      out.flip();
+      channel.write(out);
+      out.compact();
+      // Stop reading whilst responses are backed up, so the remote cannot outrun us.
+      key.interestOps(out.position() == 0 ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+    }
+
+    void close(SelectionKey key) {
+      key.cancel();
+      if (connections.remove(remote) != null) {
+        closed.add(metrics);
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing more to do
+      }
+    }
+  }
+}
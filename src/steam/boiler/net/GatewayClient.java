@@ -0,0 +1,150 @@
+package steam.boiler.net;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * The remote side of a {@link Gateway}, as used by physical units (or a stand-in for them). The
+ * incoming mailboxes of several boilers are batched into a single frame, which is then exchanged
+ * with the gateway for their outgoing mailboxes. The connection is blocking, and buffers are
+ * reused between exchanges.
+ */
+public final class GatewayClient implements Closeable {
+  /**
+   * Handles the outgoing mailbox of each boiler in a response.
+   */
+  public interface Handler {
+    /**
+     * Handle the response for a single boiler.
+     *
+     * @param id
+     *          The boiler identifier.
+     * @param outgoing
+     *          The messages sent by the boiler's controller, which are only valid for the duration
+     *          of this call.
+     */
+    public void handle(int id, WireMailbox outgoing);
+  }
+
+  private final SocketChannel channel;
+  private final ByteBuffer out;
+  private final ByteBuffer in;
+  private final WireMailbox view;
+  private int frame = -1;
+  private int boilers;
+
+  /**
+   * Connect to a gateway, using buffers of the default size.
+   *
+   * @param address
+   *          The address of the gateway.
+   * @param numberOfPumps
+   *          The number of pumps in the boilers addressed, which determines the messages shared
+   *          when responses are read.
+   * @throws IOException
+   *           If the connection cannot be established.
+   */
+  public GatewayClient(InetSocketAddress address, int numberOfPumps) throws IOException {
+    this(address, numberOfPumps, Gateway.DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Connect to a gateway.
+   *
+   * @param address
+   *          The address of the gateway.
+   * @param numberOfPumps
+   *          The number of pumps in the boilers addressed, which determines the messages shared
+   *          when responses are read.
+   * @param bufferSize
+   *          The size (in bytes) of the buffers used, which should match that of the gateway.
+   * @throws IOException
+   *           If the connection cannot be established.
+   */
+  public GatewayClient(InetSocketAddress address, int numberOfPumps, int bufferSize)
+      throws IOException {
+    this.channel = SocketChannel.open(address);
+    this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    this.out = ByteBuffer.allocateDirect(bufferSize);
+    this.in = ByteBuffer.allocateDirect(bufferSize);
+    this.view = new WireMailbox(numberOfPumps);
+  }
+
+  /**
+   * Add the incoming mailbox of a boiler to the frame being built, starting a new frame if
+   * necessary.
+   *
+   * @param id
+   *          The boiler identifier, as assigned by the gateway.
+   * @param incoming
+   *          The messages from the boiler's physical units.
+   */
+  public void add(int id, Mailbox incoming) {
+    if (frame < 0) {
+      out.clear();
+      frame = Frames.begin(out);
+      boilers = 0;
+    } else if (boilers == Frames.MAX_BOILERS) {
+      throw new IllegalStateException("too many boilers in frame");
+    }
+    out.putInt(id);
+    WireCodec.encode(incoming, out);
+    boilers = boilers + 1;
+  }
+
+  /**
+   * Send the frame built so far, and wait for the gateway to respond.
+   *
+   * @param handler
+   *          Called with the outgoing mailbox of each boiler in the frame, in the order added.
+   * @return The number of boilers in the response.
+   * @throws IOException
+   *           If the connection fails.
+   */
+  public int exchange(Handler handler) throws IOException {
+    if (frame < 0) {
+      throw new IllegalStateException("nothing to send");
+    }
+    Frames.finish(out, frame, boilers);
+    frame = -1;
+    out.flip();
+    while (out.hasRemaining()) {
+      channel.write(out);
+    }
+    // Read until a complete response has arrived
+    in.clear();
+    int length;
+    while (true) {
+      in.flip();
+      length = Frames.complete(in);
+      if (length > 0) {
+        break;
+      }
+      in.position(in.limit());
+      in.limit(in.capacity());
+      if (channel.read(in) < 0) {
+        throw new EOFException("gateway closed connection");
+      }
+    }
+    int n = Frames.boilers(in);
+    in.position(Frames.HEADER);
+    for (int i = 0; i != n; ++i) {
+      int id = in.getInt();
+      WireCodec.decode(in, view);
+      handler.handle(id, view);
+    }
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,203 @@
+package steam.boiler.net;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import steam.boiler.core.MessageParameter;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * The binary encoding of mailboxes exchanged between controllers and physical units over the
+ * network. An encoded mailbox consists of an unsigned <code>short</code> count of messages,
+ * followed by each message in turn. A message is encoded as a <code>byte</code> giving its kind
+ * ordinal, followed by its parameter (if any) in the narrowest form which can hold it:
+ *
+ * <pre>
+ * NONE             (nothing)
+ * MODE             byte mode ordinal
+ * INTEGER          int
+ * BOOLEAN          byte (0 or 1)
+ * DOUBLE           double
+ * INTEGER_BOOLEAN  int, then byte (0 or 1)
+ * </pre>
+ *
+ * <p>
+ * Values are written in the byte order of the buffer being used. Encoding and decoding read and
+ * write buffers directly, and do not allocate.
+ * </p>
+ */
+public final class WireCodec {
+  /**
+   * The largest number of messages which can be encoded in a single mailbox.
+   */
+  public static final int MAX_MESSAGES = 0xFFFF;
+
+  private static final MessageKind[] KINDS = MessageKind.values();
+  private static final int MODES = Mode.values().length;
+
+  private WireCodec() {
+  }
+
+  /**
+   * Determine the number of bytes needed to encode a given message.
+   *
+   * @param kind
+   *          The kind of message.
+   * @return The number of bytes its encoding occupies, including the kind itself.
+   */
+  public static int width(MessageKind kind) {
+    switch (MessageParameter.of(kind)) {
+      case MODE:
+      case BOOLEAN:
+        return 2;
+      case INTEGER:
+        return 5;
+      case DOUBLE:
+        return 9;
+      case INTEGER_BOOLEAN:
+        return 6;
+      default:
+        return 1;
+    }
+  }
+
+  /**
+   * Determine the number of bytes needed to encode a given mailbox.
+   *
+   * @param mailbox
+   *          The mailbox to be encoded.
+   * @return The number of bytes its encoding occupies.
+   */
+  public static int size(Mailbox mailbox) {
+    int size = 2;
+    for (int i = 0; i != mailbox.size(); ++i) {
+      size += width(mailbox.read(i).getKind());
+    }
+    return size;
+  }
+
+  /**
+   * Encode a mailbox into a buffer, starting at the buffer's position. The position is advanced
+   * past the encoded mailbox.
+   *
+   * @param mailbox
+   *          The mailbox to be encoded.
+   * @param buffer
+   *          The buffer to write into.
+   * @throws java.nio.BufferOverflowException
+   *           If there is insufficient space remaining in the buffer.
+   */
+  public static void encode(Mailbox mailbox, ByteBuffer buffer) {
+    final int n = mailbox.size();
+    if (n > MAX_MESSAGES) {
+      throw new IllegalArgumentException("too many messages (" + n + ")");
+    }
+    buffer.putShort((short) n);
+    for (int i = 0; i != n; ++i) {
+      encode(mailbox.read(i), buffer);
+    }
+  }
+
+  /**
+   * Encode a single message into a buffer, starting at the buffer's position. The position is
+   * advanced past the encoded message.
+   *
+   * @param message
+   *          The message to be encoded.
+   * @param buffer
+   *          The buffer to write into.
+   */
+  public static void encode(Message message, ByteBuffer buffer) {
+    MessageKind kind = message.getKind();
+    buffer.put((byte) kind.ordinal());
+    switch (MessageParameter.of(kind)) {
+      case MODE:
+        buffer.put((byte) message.getModeParameter().ordinal());
+        break;
+      case INTEGER:
+        buffer.putInt(message.getIntegerParameter());
+        break;
+      case BOOLEAN:
+        buffer.put((byte) (message.getBooleanParameter() ? 1 : 0));
+        break;
+      case DOUBLE:
+        buffer.putDouble(message.getDoubleParameter());
+        break;
+      case INTEGER_BOOLEAN:
+        buffer.putInt(message.getIntegerParameter());
+        buffer.put((byte) (message.getBooleanParameter() ? 1 : 0));
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Decode a mailbox from a buffer, starting at the buffer's position. Messages are not copied out
+   * of the buffer. Instead, the given view is reset to refer to them in place. Hence, the view is
+   * only valid until the buffer is next modified. The position is advanced past the encoded
+   * mailbox.
+   *
+   * @param buffer
+   *          The buffer to read from.
+   * @param view
+   *          The view to be reset to the decoded messages.
+   * @throws BufferUnderflowException
+   *           If the buffer ends part way through the mailbox.
+   * @throws IllegalArgumentException
+   *           If the buffer holds an invalid message kind or mode.
+   */
+  public static void decode(ByteBuffer buffer, WireMailbox view) {
+    final int n = buffer.getShort() & 0xFFFF;
+    view.reset(buffer, n);
+    for (int i = 0; i != n; ++i) {
+      int offset = buffer.position();
+      int kind = buffer.get(offset) & 0xFF;
+      if (kind >= KINDS.length) {
+        throw new IllegalArgumentException("invalid message kind " + kind + " at " + offset);
+      }
+      int width = width(KINDS[kind]);
+      if (buffer.remaining() < width) {
+        throw new BufferUnderflowException();
+      }
+      if (width == 2 && MessageParameter.of(KINDS[kind]) == MessageParameter.MODE
+          && (buffer.get(offset + 1) & 0xFF) >= MODES) {
+        throw new IllegalArgumentException("invalid mode at " + offset);
+      }
+      view.add(offset);
+      buffer.position(offset + width);
+    }
+  }
+
+  /**
+   * Determine whether a buffer holds a complete encoded mailbox, starting at its position. This
+   * does not change the buffer's position, and is intended for framing data arriving piecemeal.
+   *
+   * @param buffer
+   *          The buffer to check.
+   * @return The number of bytes the mailbox occupies, or -1 if it is not yet complete.
+   */
+  public static int complete(ByteBuffer buffer) {
+    int start = buffer.position();
+    int limit = buffer.limit();
+    if (limit - start < 2) {
+      return -1;
+    }
+    final int n = buffer.getShort(start) & 0xFFFF;
+    int offset = start + 2;
+    for (int i = 0; i != n; ++i) {
+      if (offset >= limit) {
+        return -1;
+      }
+      int kind = buffer.get(offset) & 0xFF;
+      if (kind >= KINDS.length) {
+        throw new IllegalArgumentException("invalid message kind " + kind + " at " + offset);
+      }
+      offset += width(KINDS[kind]);
+    }
+    return offset <= limit ? offset - start : -1;
+  }
+}
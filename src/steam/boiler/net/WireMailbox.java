@@ -0,0 +1,206 @@
+package steam.boiler.net;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import steam.boiler.core.DecodedMailbox;
+import steam.boiler.core.MessageCache;
+import steam.boiler.core.MessageParameter;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * A read-only view of a mailbox decoded by {@link WireCodec}, whose messages remain in the buffer
+ * they were received into. The kind and parameter of each message can be read directly, without
+ * constructing a message object (see {@link DecodedMailbox}). The controller reads incoming
+ * mailboxes this way, so a decoded cycle is processed without allocating. Messages are only
+ * constructed when read through {@link Mailbox#read(int)}. In this case, shared instances from a
+ * {@link MessageCache} are returned for every kind whose parameter ranges over a small set (which
+ * includes pump numbers within the boiler). Messages carrying a double or boolean parameter (e.g.
+ * <code>LEVEL_v</code>), and those for pumps outside the boiler, are freshly allocated.
+ *
+ * <p>
+ * A view is reused by decoding into it repeatedly. It is only valid until the underlying buffer
+ * is next modified.
+ * </p>
+ */
+public final class WireMailbox implements DecodedMailbox {
+  private static final MessageKind[] KINDS = MessageKind.values();
+  private static final Mode[] MODES = Mode.values();
+
+  private final MessageCache cache;
+  private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+  /**
+   * The offset in the buffer of each message.
+   */
+  private int[] offsets;
+  private int size;
+
+  /**
+   * Construct an empty view.
+   *
+   * @param numberOfPumps
+   *          The number of pumps in the boiler, which determines the messages which are shared.
+   */
+  public WireMailbox(int numberOfPumps) {
+    this.cache = MessageCache.forPumps(numberOfPumps);
+    this.offsets = new int[16];
+  }
+
+  /**
+   * Reset this view to an empty mailbox over a given buffer.
+   *
+   * @param buffer
+   *          The buffer holding the encoded messages.
+   * @param expected
+   *          The number of messages expected.
+   */
+  void reset(ByteBuffer buffer, int expected) {
+    this.buffer = buffer;
+    this.size = 0;
+    if (offsets.length < expected) {
+      offsets = Arrays.copyOf(offsets, expected);
+    }
+  }
+
+  /**
+   * Add the message encoded at a given offset to this view.
+   *
+   * @param offset
+   *          The offset in the buffer of the message.
+   */
+  void add(int offset) {
+    offsets[size++] = offset;
+  }
+
+  /**
+   * Views are read only.
+   *
+   * @throws UnsupportedOperationException
+   *           Always.
+   */
+  @Override
+  public void send(Message message) {
+    throw new UnsupportedOperationException("wire mailbox is read only");
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the kind of a given message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its kind.
+   */
+  @Override
+  public MessageKind getKind(int i) {
+    return KINDS[buffer.get(offset(i)) & 0xFF];
+  }
+
+  /**
+   * Get the mode parameter of a given <code>MODE_m</code> message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its mode.
+   */
+  @Override
+  public Mode getModeParameter(int i) {
+    return MODES[buffer.get(offset(i) + 1)];
+  }
+
+  /**
+   * Get the integer parameter of a given message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its integer parameter.
+   */
+  @Override
+  public int getIntegerParameter(int i) {
+    return buffer.getInt(offset(i) + 1);
+  }
+
+  /**
+   * Get the boolean parameter of a given message. For messages carrying an integer and boolean
+   * pair, the boolean follows the integer.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its boolean parameter.
+   */
+  @Override
+  public boolean getBooleanParameter(int i) {
+    int offset = offset(i);
+    return buffer.get(offset + WireCodec.width(KINDS[buffer.get(offset) & 0xFF]) - 1) != 0;
+  }
+
+  /**
+   * Get the double parameter of a given message.
+   *
+   * @param i
+   *          The index of the message.
+   * @return Its double parameter.
+   */
+  @Override
+  public double getDoubleParameter(int i) {
+    return buffer.getDouble(offset(i) + 1);
+  }
+
+  @Override
+  public Message read(int i) {
+    MessageKind kind = getKind(i);
+    switch (MessageParameter.of(kind)) {
+      case MODE:
+        return cache.mode(getModeParameter(i));
+      case INTEGER: {
+        int n = getIntegerParameter(i);
+        if (n >= 0 && n < cache.getNumberOfPumps()) {
+          return cache.get(kind, n);
+        }
+        // Outside the boiler, so pass through as is for the controller to deal with
+        return new Message(kind, n);
+      }
+      case BOOLEAN:
+        return new Message(kind, getBooleanParameter(i));
+      case DOUBLE:
+        return new Message(kind, getDoubleParameter(i));
+      case INTEGER_BOOLEAN: {
+        int n = getIntegerParameter(i);
+        boolean b = getBooleanParameter(i);
+        if (n >= 0 && n < cache.getNumberOfPumps()) {
+          return cache.get(kind, n, b);
+        }
+        return new Message(kind, n, b);
+      }
+      default:
+        return cache.get(kind);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder r = new StringBuilder("[");
+    for (int i = 0; i != size; ++i) {
+      if (i != 0) {
+        r.append(", ");
+      }
+      r.append(read(i));
+    }
+    return r.append(']').toString();
+  }
+
+  private int offset(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("index " + i + " out of bounds for size " + size);
+    }
+    return offsets[i];
+  }
+}
@@ -0,0 +1,161 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.handshake;
+import static steam.boiler.tests.TestUtils.midpoint;
+import static steam.boiler.tests.TestUtils.transmission;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.ControllerMetrics;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.net.WireCodec;
+import steam.boiler.net.WireMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that the controller does not allocate on its steady state path. That is, once
+ * warmed up, clocking the controller with a well-formed mailbox should not produce any garbage.
+ * Allocation is measured per thread, so the figures are not disturbed by other activity in the
+ * JVM.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class AllocationTests {
+  /**
+   * Number of cycles used to warm up the controller before measuring.
+   */
+  private static final int WARMUP = 100_000;
+
+  /**
+   * Number of cycles measured.
+   */
+  private static final int CYCLES = 100_000;
+
+  /**
+   * Allowance (in bytes) for the measurement itself, which is amortised over all cycles.
+   */
+  private static final long SLACK = 1024;
+
+  /**
+   * Check controller does not allocate whilst waiting for the physical units.
+   */
+  @Test
+  public void test_allocation_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    Mailbox input = transmission(config, 0);
+    assertNoAllocation(controller, input);
+  }
+
+  /**
+   * Check controller does not allocate once in normal mode.
+   */
+  @Test
+  public void test_allocation_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    handshake(config, controller);
+    assertNoAllocation(controller, transmission(config, midpoint(config)));
+  }
+
+  /**
+   * Check controller does not allocate when metrics are attached.
+   */
+  @Test
+  public void test_allocation_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    controller.setMetrics(new ControllerMetrics());
+    assertNoAllocation(controller, transmission(config, 0));
+  }
+
+  /**
+   * Check controller does not allocate when each cycle is decoded from the wire, once in normal
+   * mode. In particular, level and steam readings must be read without constructing messages.
+   */
+  @Test
+  public void test_allocation_04() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    handshake(config, controller);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    WireCodec.encode(transmission(config, midpoint(config)), buffer);
+    buffer.flip();
+    WireMailbox view = new WireMailbox(config.getNumberOfPumps());
+    DiscardingMailbox output = new DiscardingMailbox();
+    assertNoAllocation(() -> {
+      buffer.rewind();
+      WireCodec.decode(buffer, view);
+      controller.clock(view, output);
+    });
+  }
+
+  /**
+   * Clock the controller repeatedly with the same input, and check that once warmed up this
+   * allocates (effectively) nothing.
+   *
+   * @param controller
+   *          The controller under test.
+   * @param input
+   *          The set of input messages passed to the controller on every cycle.
+   */
+  private static void assertNoAllocation(MySteamBoilerController controller, Mailbox input) {
+    DiscardingMailbox output = new DiscardingMailbox();
+    assertNoAllocation(() -> controller.clock(input, output));
+  }
+
+  /**
+   * Run a cycle repeatedly, and check that once warmed up this allocates (effectively) nothing.
+   *
+   * @param cycle
+   *          Runs a single cycle.
+   */
+  private static void assertNoAllocation(Runnable cycle) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    long id = Thread.currentThread().getId();
+    for (int i = 0; i != WARMUP; ++i) {
+      cycle.run();
+    }
+    long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i != CYCLES; ++i) {
+      cycle.run();
+    }
+    long allocated = threads.getThreadAllocatedBytes(id) - before;
+    assertTrue("allocated " + allocated + " bytes over " + CYCLES + " cycles", allocated < SLACK);
+  }
+
+  /**
+   * A mailbox which simply counts and then drops everything sent to it.
+   */
+  private static class DiscardingMailbox implements Mailbox {
+    private int sent;
+
+    @Override
+    public void send(Message message) {
+      sent = sent + 1;
+    }
+
+    @Override
+    public Message read(int i) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public int size() {
+      return 0;
+    }
+
+    @Override
+    public String toString() {
+      return "discarded " + sent;
+    }
+  }
+}
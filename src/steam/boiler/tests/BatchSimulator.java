@@ -0,0 +1,304 @@
+package steam.boiler.tests;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+import steam.boiler.core.MessageCache;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A simplified model of the physical units which simulates many independent scenarios of the same
+ * boiler together. Rather than one object graph per scenario (as for <code>PhysicalUnits</code>),
+ * the state of every scenario is held in primitive arrays indexed by scenario. Thus, the physics
+ * of all scenarios is advanced by a single pass over a few arrays, which the JIT can vectorise.
+ * Decisions are still made by one {@link MySteamBoilerController} per scenario.
+ *
+ * <p>
+ * The model is ideal: pumps start and stop immediately, sensors are exact and transmission never
+ * fails. Water is drawn off as steam (once the boiler is operating) and through the valve (when
+ * open), and the level is kept between zero and the boiler's capacity.
+ * </p>
+ *
+ * <p>
+ * The model has only been checked against <code>PhysicalUnits</code> whilst an empty boiler is
+ * filled during initialisation, when no steam is produced and the valve stays closed. The steam
+ * model and valve rate are supplied by the caller, and are not derived from the reference model.
+ * The same goes for the assumption that pumps start immediately. Hence, levels after the boiler
+ * starts operating, or after the valve opens, should not be expected to match
+ * <code>PhysicalUnits</code>.
+ * </p>
+ */
+public final class BatchSimulator {
+  /**
+   * The physical units are waiting for the controller to initialise the boiler.
+   */
+  public static final byte WAITING = 0;
+
+  /**
+   * The controller has signalled it is ready, but not yet started the boiler.
+   */
+  public static final byte READY = 1;
+
+  /**
+   * The boiler is operating, and producing steam.
+   */
+  public static final byte OPERATING = 2;
+
+  /**
+   * The controller has stopped the boiler.
+   */
+  public static final byte STOPPED = 3;
+
+  private final SteamBoilerCharacteristics config;
+  private final int size;
+  private final int numberOfPumps;
+  private final double valveRate;
+  private final IntToDoubleFunction steamModel;
+  private final MessageCache messages;
+
+  // Per-scenario state, indexed by scenario.
+  private final byte[] mode;
+  private final double[] level;
+  private final double[] steam;
+  private final double[] inflow;
+  private final double[] outflow;
+  private final int[] operating;
+  private final boolean[] valve;
+
+  /**
+   * Per-pump state, indexed by scenario times the number of pumps plus pump number.
+   */
+  private final boolean[] pumps;
+
+  /**
+   * Reusable mailboxes for exchanging messages with controllers.
+   */
+  private final RingMailbox input = new RingMailbox(256);
+  private final RingMailbox output = new RingMailbox(256);
+
+  /**
+   * Construct a batch of identical empty boilers, which are all waiting for initialisation.
+   *
+   * @param config
+   *          The boiler characteristics shared by every scenario.
+   * @param size
+   *          The number of scenarios.
+   * @param valveRate
+   *          The rate (in litres per second) at which water is evacuated when the valve is open.
+   * @param steamModel
+   *          Determines the rate of steam (in litres per second) for a given amount of time (in
+   *          ms) since the boiler started operating.
+   */
+  public BatchSimulator(SteamBoilerCharacteristics config, int size, double valveRate,
+      IntToDoubleFunction steamModel) {
+    this.config = config;
+    this.size = size;
+    this.numberOfPumps = config.getNumberOfPumps();
+    this.valveRate = valveRate;
+    this.steamModel = steamModel;
+    this.messages = MessageCache.forPumps(numberOfPumps);
+    this.mode = new byte[size];
+    this.level = new double[size];
+    this.steam = new double[size];
+    this.inflow = new double[size];
+    this.outflow = new double[size];
+    this.operating = new int[size];
+    this.valve = new boolean[size];
+    this.pumps = new boolean[size * numberOfPumps];
+  }
+
+  /**
+   * Get the number of scenarios in this batch.
+   *
+   * @return The number of scenarios.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the water level of a given scenario.
+   *
+   * @param i
+   *          The scenario.
+   * @return The water level (in litres).
+   */
+  public double getLevel(int i) {
+    return level[i];
+  }
+
+  /**
+   * Set the water level of a given scenario.
+   *
+   * @param i
+   *          The scenario.
+   * @param litres
+   *          The water level (in litres).
+   */
+  public void setLevel(int i, double litres) {
+    level[i] = litres;
+  }
+
+  /**
+   * Get the steam rate of a given scenario.
+   *
+   * @param i
+   *          The scenario.
+   * @return The steam rate (in litres per second).
+   */
+  public double getSteam(int i) {
+    return steam[i];
+  }
+
+  /**
+   * Get the mode of the physical units of a given scenario.
+   *
+   * @param i
+   *          The scenario.
+   * @return One of {@link #WAITING}, {@link #READY}, {@link #OPERATING} or {@link #STOPPED}.
+   */
+  public byte getMode(int i) {
+    return mode[i];
+  }
+
+  /**
+   * Advance the physics of every scenario by a given amount of time.
+   *
+   * @param elapsed
+   *          The time (in ms) to advance by.
+   */
+  public void step(int elapsed) {
+    final double dt = elapsed / 1000.0;
+    final double capacity = config.getCapacity();
+    // Steam depends on time since each boiler started operating, which differs between scenarios.
+    for (int i = 0; i != size; ++i) {
+      if (mode[i] == OPERATING) {
+        steam[i] = steamModel.applyAsDouble(operating[i]);
+        operating[i] += elapsed;
+      }
+    }
+    for (int i = 0; i != size; ++i) {
+      outflow[i] = steam[i] + (valve[i] ? valveRate : 0.0);
+    }
+    // The remaining loop is straight-line arithmetic over primitive arrays
+    for (int i = 0; i != size; ++i) {
+      double l = level[i] + ((inflow[i] - outflow[i]) * dt);
+      level[i] = Math.min(capacity, Math.max(0.0, l));
+    }
+  }
+
+  /**
+   * Write the messages transmitted by the physical units of a given scenario.
+   *
+   * @param i
+   *          The scenario.
+   * @param incoming
+   *          The mailbox to be passed to the controller.
+   */
+  public void transmit(int i, Mailbox incoming) {
+    if (mode[i] == STOPPED) {
+      return;
+    } else if (mode[i] == WAITING) {
+      incoming.send(messages.get(MessageKind.STEAM_BOILER_WAITING));
+    } else if (mode[i] == READY) {
+      incoming.send(messages.get(MessageKind.PHYSICAL_UNITS_READY));
+    }
+    incoming.send(new Message(MessageKind.LEVEL_v, level[i]));
+    incoming.send(new Message(MessageKind.STEAM_v, steam[i]));
+    final int base = i * numberOfPumps;
+    for (int j = 0; j != numberOfPumps; ++j) {
+      incoming.send(messages.get(MessageKind.PUMP_STATE_n_b, j, pumps[base + j]));
+      incoming.send(messages.get(MessageKind.PUMP_CONTROL_STATE_n_b, j, pumps[base + j]));
+    }
+  }
+
+  /**
+   * Apply the messages sent by the controller of a given scenario.
+   *
+   * @param i
+   *          The scenario.
+   * @param outgoing
+   *          The mailbox written by the controller.
+   */
+  public void receive(int i, Mailbox outgoing) {
+    final int base = i * numberOfPumps;
+    for (int k = 0; k != outgoing.size(); ++k) {
+      Message m = outgoing.read(k);
+      switch (m.getKind()) {
+        case PROGRAM_READY:
+          if (mode[i] == WAITING) {
+            mode[i] = READY;
+          }
+          break;
+        case MODE_m:
+          switch (m.getModeParameter()) {
+            case NORMAL:
+            case DEGRADED:
+            case RESCUE:
+              if (mode[i] == READY) {
+                mode[i] = OPERATING;
+              }
+              break;
+            case EMERGENCY_STOP:
+              stop(i);
+              break;
+            default:
+              break;
+          }
+          break;
+        case VALVE:
+          valve[i] = !valve[i];
+          break;
+        case OPEN_PUMP_n:
+          setPump(i, base, m.getIntegerParameter(), true);
+          break;
+        case CLOSE_PUMP_n:
+          setPump(i, base, m.getIntegerParameter(), false);
+          break;
+        default:
+          // Everything else is irrelevant to an ideal model
+          break;
+      }
+    }
+  }
+
+  /**
+   * Exchange messages between every scenario and its controller, and then advance the physics to
+   * the next exchange.
+   *
+   * @param controllers
+   *          The controller for each scenario.
+   * @param elapsed
+   *          The time (in ms) to the next exchange.
+   */
+  public void cycle(MySteamBoilerController[] controllers, int elapsed) {
+    for (int i = 0; i != size; ++i) {
+      input.clear();
+      output.clear();
+      transmit(i, input);
+      controllers[i].clock(input, output);
+      receive(i, output);
+    }
+    step(elapsed);
+  }
+
+  private void setPump(int i, int base, int pump, boolean open) {
+    if (pump < 0 || pump >= numberOfPumps || pumps[base + pump] == open) {
+      return;
+    }
+    pumps[base + pump] = open;
+    inflow[i] += open ? config.getPumpCapacity(pump) : -config.getPumpCapacity(pump);
+  }
+
+  private void stop(int i) {
+    mode[i] = STOPPED;
+    Arrays.fill(pumps, i * numberOfPumps, (i + 1) * numberOfPumps, false);
+    inflow[i] = 0;
+    steam[i] = 0;
+  }
+}
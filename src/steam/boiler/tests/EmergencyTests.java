@@ -0,0 +1,158 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static steam.boiler.tests.TestUtils.handshake;
+import static steam.boiler.tests.TestUtils.midpoint;
+import static steam.boiler.tests.TestUtils.transmission;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the pre-scan which emergency stops the controller as soon as a transmission is
+ * malformed, or the level is beyond its limits, without processing the rest of the cycle. The
+ * latency of a cycle which trips the emergency stop is measured separately, by the emergency
+ * benchmark.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EmergencyTests {
+
+  /**
+   * Check missing or duplicate readings emergency stop the controller, both whilst waiting and in
+   * normal mode, and that nothing but the emergency stop is sent.
+   */
+  @Test
+  public void test_emergency_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    double midpoint = midpoint(config);
+    MessageKind[] kinds = { MessageKind.LEVEL_v, MessageKind.STEAM_v, MessageKind.PUMP_STATE_n_b,
+        MessageKind.PUMP_CONTROL_STATE_n_b };
+    for (MessageKind kind : kinds) {
+      for (int normal = 0; normal != 2; ++normal) {
+        // Missing reading
+        MySteamBoilerController controller = new MySteamBoilerController(config);
+        if (normal == 1) {
+          handshake(config, controller);
+        }
+        assertEmergencyStop(controller, without(transmission(config, midpoint), kind));
+        // Duplicate reading
+        controller = new MySteamBoilerController(config);
+        if (normal == 1) {
+          handshake(config, controller);
+        }
+        Mailbox input = transmission(config, midpoint);
+        input.send(first(input, kind));
+        assertEmergencyStop(controller, input);
+      }
+    }
+  }
+
+  /**
+   * Check a level beyond the limits emergency stops the controller in normal mode, but not whilst
+   * waiting (when the boiler may be filling from empty) and not when the reading is impossible
+   * (which indicates the level sensor has failed).
+   */
+  @Test
+  public void test_emergency_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    double[] beyond = { config.getMinimalLimitLevel() - 1, config.getMaximalLimitLevel() + 1 };
+    for (double level : beyond) {
+      MySteamBoilerController controller = new MySteamBoilerController(config);
+      handshake(config, controller);
+      assertEmergencyStop(controller, transmission(config, level));
+      // Whilst waiting
+      controller = new MySteamBoilerController(config);
+      controller.clock(transmission(config, level), new RingMailbox(64));
+      assertEquals("WAITING", controller.getStatusMessage());
+    }
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    handshake(config, controller);
+    controller.clock(transmission(config, -1), new RingMailbox(64));
+    assertEquals("NORMAL", controller.getStatusMessage());
+  }
+
+  /**
+   * Check the emergency stop is only sent once, after which the controller stays stopped whatever
+   * it receives.
+   */
+  @Test
+  public void test_emergency_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    handshake(config, controller);
+    assertEmergencyStop(controller, transmission(config, Double.NaN));
+    for (int i = 0; i != 3; ++i) {
+      RingMailbox output = new RingMailbox(64);
+      controller.clock(i == 0 ? transmission(config, Double.NaN)
+          : transmission(config, midpoint(config)), output);
+      assertEquals(0, output.size());
+      assertEquals("EMERGENCY_STOP", controller.getStatusMessage());
+    }
+  }
+
+  /**
+   * Clock a controller once, and check it emergency stops without sending anything else.
+   *
+   * @param controller
+   *          The controller under test.
+   * @param input
+   *          The messages from the physical units.
+   */
+  private static void assertEmergencyStop(MySteamBoilerController controller, Mailbox input) {
+    RingMailbox output = new RingMailbox(64);
+    controller.clock(input, output);
+    assertEquals(1, output.size());
+    assertEquals(MessageKind.MODE_m, output.read(0).getKind());
+    assertEquals(Mailbox.Mode.EMERGENCY_STOP, output.read(0).getModeParameter());
+    assertEquals("EMERGENCY_STOP", controller.getStatusMessage());
+  }
+
+  /**
+   * Get the first message of a given kind in a mailbox.
+   *
+   * @param input
+   *          The mailbox to search, which must contain such a message.
+   * @param kind
+   *          The kind of message.
+   * @return The first matching message.
+   */
+  private static Message first(Mailbox input, MessageKind kind) {
+    for (int i = 0; i != input.size(); ++i) {
+      if (input.read(i).getKind() == kind) {
+        return input.read(i);
+      }
+    }
+    throw new IllegalArgumentException("no " + kind + " message");
+  }
+
+  /**
+   * Copy a mailbox, omitting the first message of a given kind.
+   *
+   * @param input
+   *          The mailbox to copy.
+   * @param kind
+   *          The kind of message to omit.
+   * @return The copied mailbox.
+   */
+  private static Mailbox without(Mailbox input, MessageKind kind) {
+    Mailbox output = new RingMailbox(64);
+    boolean omitted = false;
+    for (int i = 0; i != input.size(); ++i) {
+      Message ith = input.read(i);
+      if (!omitted && ith.getKind() == kind) {
+        omitted = true;
+      } else {
+        output.send(ith);
+      }
+    }
+    return output;
+  }
+}
@@ -0,0 +1,165 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_initialisation;
+import static steam.boiler.tests.TestUtils.MODE_normal;
+import static steam.boiler.tests.TestUtils.PROGRAM_READY;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockOnceExpecting;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.LevelEstimator;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the level estimated by the controller tracks the true level of the physical
+ * units, both when every sensor works and when the level or steam sensor has failed. The cost of
+ * an update is measured separately, by the estimator benchmark.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EstimatorTests {
+
+  /**
+   * Check the estimate tracks the true level when every sensor works.
+   */
+  @Test
+  public void test_estimator_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = handshake(config, controller);
+    for (int t = 1; t <= 6; ++t) {
+      step(controller, model);
+      assertEquals(model.getBoiler().getWaterLevel(), controller.getEstimatedLevel(),
+          0.01 * config.getCapacity());
+    }
+  }
+
+  /**
+   * Check the estimate continues to track the true level from the pump history and steam readings
+   * after the level sensor fails.
+   */
+  @Test
+  public void test_estimator_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = handshake(config, controller);
+    model.setLevelSensor(new LevelSensorModels.StuckNegativeOne(model));
+    for (int t = 1; t <= 6; ++t) {
+      step(controller, model);
+      assertEquals(model.getBoiler().getWaterLevel(), controller.getEstimatedLevel(),
+          0.05 * config.getCapacity());
+    }
+  }
+
+  /**
+   * Check the estimate continues to track the true level, and infers a plausible steam rate, after
+   * the steam sensor fails.
+   */
+  @Test
+  public void test_estimator_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = handshake(config, controller);
+    model.setSteamSensor(new SteamSensorModels.StuckNegativeOne(model));
+    for (int t = 1; t <= 6; ++t) {
+      step(controller, model);
+      assertEquals(model.getBoiler().getWaterLevel(), controller.getEstimatedLevel(),
+          0.01 * config.getCapacity());
+      double steam = controller.getEstimatedSteam();
+      assertTrue(steam > -1 && steam <= config.getMaximualSteamRate() + 1);
+    }
+  }
+
+  /**
+   * Check the estimate advances by exactly the inflow less the steam rate, with its variance
+   * growing, whilst no readings are available, and that the variance falls again once a level
+   * reading arrives.
+   */
+  @Test
+  public void test_estimator_04() {
+    LevelEstimator estimator = new LevelEstimator(5.0, 1.0, 0.01, 100, 1.0);
+    estimator.update(0, 500, 2);
+    double variance = estimator.getLevelVariance();
+    for (int t = 1; t <= 4; ++t) {
+      estimator.update(10, Double.NaN, Double.NaN);
+      assertEquals(500 + (t * 5.0 * (10 - 2)), estimator.getLevel(), 1e-9);
+      assertEquals(2, estimator.getSteam(), 1e-9);
+      assertTrue(estimator.getLevelVariance() > variance);
+      variance = estimator.getLevelVariance();
+    }
+    estimator.update(10, 580, Double.NaN);
+    assertTrue(estimator.getLevelVariance() < variance);
+    assertEquals(580, estimator.getLevel(), 1.0);
+  }
+
+  /**
+   * Check the estimate tracks the true level from the pump history when the level sensor fails
+   * whilst the boiler is filling. Pumps are opened directly on the physical units, since the
+   * controller does not open them itself in normal mode, and the level sensor fails after one
+   * cycle with the pumps open.
+   */
+  @Test
+  public void test_estimator_05() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = handshake(config, controller);
+    model.getPump(0).open();
+    model.getPump(1).open();
+    step(controller, model);
+    model.setLevelSensor(new LevelSensorModels.StuckNegativeOne(model));
+    double before = model.getBoiler().getWaterLevel();
+    for (int t = 1; t <= 3; ++t) {
+      step(controller, model);
+      assertEquals(model.getBoiler().getWaterLevel(), controller.getEstimatedLevel(),
+          0.05 * config.getCapacity());
+    }
+    // Otherwise, the inflow was not exercised
+    assertTrue(model.getBoiler().getWaterLevel() > before);
+  }
+
+  /**
+   * Take a controller through initialisation into normal mode, with enough water in the boiler to
+   * go straight to ready. The controller does not yet regulate the level in normal mode, so tests
+   * start from the middle of the normal range and only run for as long as the level stays within
+   * its limits.
+   *
+   * @param config
+   *          The boiler characteristics to be used.
+   * @param controller
+   *          The controller under test.
+   * @return The physical units, which are now operating.
+   */
+  private static PhysicalUnits handshake(SteamBoilerCharacteristics config,
+      MySteamBoilerController controller) {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.getBoiler().pumpInWater(
+        FunctionalTests.average(config.getMinimalNormalLevel(), config.getMaximalNormalLevel()));
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockOnceExpecting(controller, model, atleast(MODE_initialisation, PROGRAM_READY));
+    clockOnceExpecting(controller, model, atleast(MODE_normal));
+    return model;
+  }
+
+  /**
+   * Advance the physical units by a single cycle, one second at a time, and then exchange messages
+   * with the controller.
+   *
+   * @param controller
+   *          The controller under test.
+   * @param model
+   *          The physical units.
+   */
+  private static void step(MySteamBoilerController controller, PhysicalUnits model) {
+    for (int t = 1000; t <= 5000; t += 1000) {
+      TestUtils.clock(1000, t, controller, model);
+    }
+  }
+}
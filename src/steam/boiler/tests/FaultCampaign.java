@@ -0,0 +1,504 @@
+package steam.boiler.tests;
+
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpControllerModels;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.tests.TestUtils.Fault;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.tests.TestUtils.Stepping;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A fault injection campaign, which explores every combination of fault model, pump and time of
+ * failure. Each combination is an independent scenario, which simulates the system from scratch up
+ * to the time of failure, injects the fault, and then waits (up to some horizon) for the
+ * controller to respond. Since scenarios are independent, they are run in parallel on a fork/join
+ * pool. The outcome of every scenario is gathered into a single {@link Report}.
+ *
+ * <p>
+ * By default, a scenario passes when the controller does not respond before the fault, and then
+ * responds within the horizon. The response is an emergency stop unless configured otherwise.
+ * </p>
+ */
+public class FaultCampaign {
+  /**
+   * Scenarios run sequentially once a batch is no bigger than this.
+   */
+  private static final int THRESHOLD = 4;
+
+  /**
+   * The time (in ms) between two iterations of the simulation loop. The physical units are
+   * advanced by this much at each iteration, unless deferred (see {@link Stepping#defers}).
+   */
+  private static final int GRANULARITY = 100;
+
+  /**
+   * The boiler characteristics used for every scenario.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The times (in seconds) at which faults are injected.
+   */
+  private final int[] times;
+
+  /**
+   * The maximum time (in seconds) after the fault to wait for a response.
+   */
+  private final int horizon;
+
+  /**
+   * The response expected from the controller.
+   */
+  private final MailboxMatcher response;
+
+  /**
+   * The fault models being explored.
+   */
+  private final ArrayList<Model> models = new ArrayList<>();
+
+  /**
+   * Determines how the physical units are advanced in every scenario.
+   */
+  private Stepping stepping = Stepping.FIXED;
+
+  /**
+   * Construct an empty campaign which expects an emergency stop in response to every fault.
+   *
+   * @param config
+   *          The boiler characteristics used for every scenario.
+   * @param times
+   *          The times (in seconds) at which faults are injected.
+   * @param horizon
+   *          The maximum time (in seconds) after the fault to wait for an emergency stop.
+   */
+  public FaultCampaign(SteamBoilerCharacteristics config, int[] times, int horizon) {
+    this(config, times, horizon, TestUtils.atleast(MODE_emergencystop));
+  }
+
+  /**
+   * Construct an empty campaign.
+   *
+   * @param config
+   *          The boiler characteristics used for every scenario.
+   * @param times
+   *          The times (in seconds) at which faults are injected.
+   * @param horizon
+   *          The maximum time (in seconds) after the fault to wait for a response.
+   * @param response
+   *          The response expected from the controller.
+   */
+  public FaultCampaign(SteamBoilerCharacteristics config, int[] times, int horizon,
+      MailboxMatcher response) {
+    this.config = config;
+    this.times = times.clone();
+    this.horizon = horizon;
+    this.response = response;
+  }
+
+  /**
+   * Add a fault model which does not involve any particular pump.
+   *
+   * @param name
+   *          Name of the model, used for reporting.
+   * @param fault
+   *          The fault to inject.
+   * @return This campaign.
+   */
+  public FaultCampaign add(String name, Fault fault) {
+    models.add(new Model(name, false, (int pump) -> fault));
+    return this;
+  }
+
+  /**
+   * Add a fault model which is tried on each pump in turn.
+   *
+   * @param name
+   *          Name of the model, used for reporting.
+   * @param fault
+   *          Constructs the fault to inject for a given pump.
+   * @return This campaign.
+   */
+  public FaultCampaign addPerPump(String name, IntFunction<Fault> fault) {
+    models.add(new Model(name, true, fault));
+    return this;
+  }
+
+  /**
+   * Add the standard transmission failure models: the level sensor, the steam sensor, each pump and
+   * each pump controller.
+   *
+   * @return This campaign.
+   */
+  public FaultCampaign addTransmissionFailures() {
+    add("LevelSensorModels.TxFailure", (PhysicalUnits m) -> TestUtils.swap(m::getLevelSensor,
+        m::setLevelSensor, new LevelSensorModels.TxFailure(m)));
+    add("SteamSensorModels.TxFailure", (PhysicalUnits m) -> TestUtils.swap(m::getSteamSensor,
+        m::setSteamSensor, new SteamSensorModels.TxFailure(m)));
+    addPerPump("PumpModels.TxFailureAll",
+        (int i) -> (PhysicalUnits m) -> TestUtils.swap(() -> m.getPump(i), p -> m.setPump(i, p),
+            new PumpModels.TxFailureAll(i, 0.0, m)));
+    addPerPump("PumpControllerModels.TxFailure",
+        (int i) -> (PhysicalUnits m) -> TestUtils.swap(() -> m.getPumpController(i),
+            p -> m.setPumpController(i, p), new PumpControllerModels.TxFailure(i, m)));
+    return this;
+  }
+
+  /**
+   * Set how the physical units are advanced in every scenario. Event driven stepping is much
+   * faster for campaigns with late faults, but only approximates the water level (see
+   * {@link Stepping#EVENT_DRIVEN}).
+   *
+   * @param stepping
+   *          Determines how the physical units are advanced.
+   * @return This campaign.
+   */
+  public FaultCampaign withStepping(Stepping stepping) {
+    this.stepping = stepping;
+    return this;
+  }
+
+  /**
+   * Enumerate every scenario in this campaign.
+   *
+   * @return The list of scenarios.
+   */
+  public ArrayList<Scenario> scenarios() {
+    ArrayList<Scenario> scenarios = new ArrayList<>();
+    for (Model model : models) {
+      int pumps = model.perPump ? config.getNumberOfPumps() : 1;
+      for (int pump = 0; pump != pumps; ++pump) {
+        for (int time : times) {
+          scenarios.add(new Scenario(model, model.perPump ? pump : -1, time));
+        }
+      }
+    }
+    return scenarios;
+  }
+
+  /**
+   * Run every scenario in this campaign on the common fork/join pool.
+   *
+   * @return The outcome of every scenario.
+   */
+  public Report run() {
+    return run(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Run every scenario in this campaign on a given fork/join pool.
+   *
+   * @param pool
+   *          The pool to use.
+   * @return The outcome of every scenario.
+   */
+  public Report run(ForkJoinPool pool) {
+    ArrayList<Scenario> scenarios = scenarios();
+    Report report = new Report(scenarios);
+    pool.invoke(new Batch(report, 0, scenarios.size()));
+    return report;
+  }
+
+  /**
+   * Run a single scenario.
+   *
+   * @param scenario
+   *          The scenario to run.
+   * @return The time (in ms) from the fault to the expected response, or one of
+   *         {@link Report#PREMATURE} and {@link Report#MISSED}.
+   */
+  private int run(Scenario scenario) {
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    // Clock system up to the fault. The expected response should not happen yet.
+    final int failure = scenario.time * 1000;
+    if (clockUntilResponse(0, failure, controller, model) >= 0) {
+      return Report.PREMATURE;
+    }
+    // Inject the fault (permanently) and exchange messages straight away.
+    scenario.model.fault.apply(scenario.pump).inject(model);
+    RingMailbox input = new RingMailbox(128);
+    RingMailbox output = new RingMailbox(128);
+    model.transmit(input);
+    controller.clock(input, output);
+    if (response.matches(output)) {
+      return 0;
+    }
+    model.receive(output);
+    // Then continue to clock the system until the response happens.
+    final int end = failure + (horizon * 1000);
+    int responded = clockUntilResponse(failure, end, controller, model);
+    return responded < 0 ? Report.MISSED : responded + GRANULARITY - failure;
+  }
+
+  /**
+   * Clock the system over a given interval until the expected response is received. The physical
+   * units are always up to date at the end of the interval, whatever the stepping.
+   *
+   * @param from
+   *          The time (in ms) at which the interval starts.
+   * @param to
+   *          The time (in ms) at which the interval ends.
+   * @param controller
+   *          The controller under test.
+   * @param model
+   *          The physical units being simulated.
+   * @return The time (in ms) at which the response was received, or -1 if it was not.
+   */
+  private int clockUntilResponse(int from, int to, MySteamBoilerController controller,
+      PhysicalUnits model) {
+    int pending = 0; // ms
+    for (int totalElapsed = from; totalElapsed < to; totalElapsed += GRANULARITY) {
+      pending += GRANULARITY;
+      if (stepping.defers(totalElapsed, (totalElapsed + GRANULARITY) == to)) {
+        continue;
+      }
+      Mailbox received = TestUtils.clock(pending, totalElapsed, controller, model);
+      pending = 0;
+      if (received != null && response.matches(received)) {
+        return totalElapsed;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * A batch of scenarios to run, which is split in two until small enough to run sequentially.
+   */
+  private final class Batch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Report report;
+    private final int start;
+    private final int end;
+
+    Batch(Report report, int start, int end) {
+      this.report = report;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if ((end - start) <= THRESHOLD) {
+        for (int i = start; i != end; ++i) {
+          int outcome;
+          try {
+            outcome = run(report.scenarios.get(i));
+          } catch (RuntimeException e) {
+            outcome = Report.CRASHED;
+            report.crashes[i] = e;
+          }
+          report.outcomes[i] = outcome;
+        }
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(new Batch(report, start, middle), new Batch(report, middle, end));
+      }
+    }
+  }
+
+  /**
+   * A fault model, which may be tried on each pump in turn.
+   */
+  private static final class Model {
+    final String name;
+    final boolean perPump;
+    final IntFunction<Fault> fault;
+
+    Model(String name, boolean perPump, IntFunction<Fault> fault) {
+      this.name = name;
+      this.perPump = perPump;
+      this.fault = fault;
+    }
+  }
+
+  /**
+   * A single combination of fault model, pump and time of failure.
+   */
+  public static final class Scenario {
+    private final Model model;
+    private final int pump;
+    private final int time;
+
+    Scenario(Model model, int pump, int time) {
+      this.model = model;
+      this.pump = pump;
+      this.time = time;
+    }
+
+    @Override
+    public String toString() {
+      return model.name + (pump >= 0 ? "(" + pump + ")" : "") + "@" + time + "s";
+    }
+  }
+
+  /**
+   * The outcome of every scenario in a campaign.
+   */
+  public static final class Report {
+    /**
+     * Outcome where the expected response happened before the fault was injected.
+     */
+    public static final int PREMATURE = -1;
+
+    /**
+     * Outcome where the expected response did not happen within the horizon.
+     */
+    public static final int MISSED = -2;
+
+    /**
+     * Outcome where the scenario failed with an exception.
+     */
+    public static final int CRASHED = -3;
+
+    private final ArrayList<Scenario> scenarios;
+
+    /**
+     * The time (in ms) from fault to response for each scenario, or a negative outcome on failure.
+     */
+    private final int[] outcomes;
+
+    /**
+     * The exception thrown by each scenario which crashed, or <code>null</code> for the others.
+     */
+    private final Throwable[] crashes;
+
+    Report(ArrayList<Scenario> scenarios) {
+      this.scenarios = scenarios;
+      this.outcomes = new int[scenarios.size()];
+      this.crashes = new Throwable[scenarios.size()];
+    }
+
+    /**
+     * Get the number of scenarios run.
+     *
+     * @return The number of scenarios.
+     */
+    public int size() {
+      return outcomes.length;
+    }
+
+    /**
+     * Get the outcome of a given scenario.
+     *
+     * @param i
+     *          The index of the scenario.
+     * @return The time (in ms) from fault to response, or a negative outcome on failure.
+     */
+    public int getOutcome(int i) {
+      return outcomes[i];
+    }
+
+    /**
+     * Get the exception which caused a given scenario to crash.
+     *
+     * @param i
+     *          The index of the scenario.
+     * @return The exception thrown, or <code>null</code> if the scenario did not crash.
+     */
+    public Throwable getCrash(int i) {
+      return crashes[i];
+    }
+
+    /**
+     * Get a given scenario.
+     *
+     * @param i
+     *          The index of the scenario.
+     * @return The scenario.
+     */
+    public Scenario getScenario(int i) {
+      return scenarios.get(i);
+    }
+
+    /**
+     * Get the number of scenarios which failed.
+     *
+     * @return The number of failures.
+     */
+    public int getFailures() {
+      int failures = 0;
+      for (int outcome : outcomes) {
+        if (outcome < 0) {
+          failures = failures + 1;
+        }
+      }
+      return failures;
+    }
+
+    /**
+     * Get the longest time from fault to response across all passing scenarios.
+     *
+     * @return The worst response time (in ms).
+     */
+    public int getWorstResponse() {
+      int worst = 0;
+      for (int outcome : outcomes) {
+        worst = Math.max(worst, outcome);
+      }
+      return worst;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder r = new StringBuilder();
+      r.append(size()).append(" scenarios, ").append(getFailures()).append(" failed, ");
+      r.append("worst response ").append(getWorstResponse()).append("ms");
+      int shown = 0;
+      for (int i = 0; i != outcomes.length && shown != 10; ++i) {
+        if (outcomes[i] < 0) {
+          r.append("\n  ").append(scenarios.get(i)).append(": ").append(describe(i));
+          shown = shown + 1;
+        }
+      }
+      return r.toString();
+    }
+
+    private String describe(int i) {
+      switch (outcomes[i]) {
+        case PREMATURE:
+          return "responded before fault";
+        case MISSED:
+          return "no response within horizon";
+        default:
+          return "crashed with " + crashes[i];
+      }
+    }
+  }
+
+  /**
+   * Run a campaign of transmission failures at every second up to a given time.
+   *
+   * @param args
+   *          Optionally, the number of seconds to sweep (default 120) and the horizon in seconds
+   *          (default 5).
+   */
+  public static void main(String[] args) {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 120;
+    int horizon = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int[] times = new int[seconds];
+    for (int i = 0; i != seconds; ++i) {
+      times[i] = i;
+    }
+    FaultCampaign campaign = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT, times, horizon)
+        .addTransmissionFailures();
+    long start = System.nanoTime();
+    Report report = campaign.run();
+    long elapsed = (System.nanoTime() - start) / 1_000_000;
+    System.out.println(report);
+    System.out.println("completed in " + elapsed + "ms");
+  }
+}
@@ -0,0 +1,156 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the commands sent whilst the controller fills or drains the boiler towards its
+ * normal range before signalling it is ready, using hand-built transmissions so that the reported
+ * state of each pump can be chosen directly.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FillingTests {
+
+  /**
+   * Check the pumps opened to fill an empty boiler are closed again when it overshoots, at the same
+   * time as the valve is opened to drain it.
+   */
+  @Test
+  public void test_filling_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    RingMailbox output = new RingMailbox(64);
+    controller.clock(waiting(config, 0, new boolean[config.getNumberOfPumps()]), output);
+    boolean[] opened = commands(output, MessageKind.OPEN_PUMP_n, config);
+    assertTrue(count(opened) > 0);
+    //
+    output = new RingMailbox(64);
+    controller.clock(waiting(config, config.getMaximalNormalLevel() + 1, opened), output);
+    assertEquals(1, count(output, MessageKind.VALVE));
+    boolean[] closed = commands(output, MessageKind.CLOSE_PUMP_n, config);
+    for (int i = 0; i != opened.length; ++i) {
+      assertEquals(opened[i], closed[i]);
+    }
+  }
+
+  /**
+   * Check a pump command which the physical units did not act on is sent again in the next cycle,
+   * and that nothing further is sent once the pumps report the commanded state.
+   */
+  @Test
+  public void test_filling_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    boolean[] closed = new boolean[config.getNumberOfPumps()];
+    RingMailbox output = new RingMailbox(64);
+    controller.clock(waiting(config, 0, closed), output);
+    boolean[] opened = commands(output, MessageKind.OPEN_PUMP_n, config);
+    assertTrue(count(opened) > 0);
+    // Commands lost, so every pump still reports closed
+    output = new RingMailbox(64);
+    controller.clock(waiting(config, 0, closed), output);
+    boolean[] resent = commands(output, MessageKind.OPEN_PUMP_n, config);
+    for (int i = 0; i != opened.length; ++i) {
+      assertEquals(opened[i], resent[i]);
+    }
+    // Commands acted on
+    output = new RingMailbox(64);
+    controller.clock(waiting(config, 0, opened), output);
+    assertEquals(0, count(output, MessageKind.OPEN_PUMP_n));
+    assertEquals(0, count(output, MessageKind.CLOSE_PUMP_n));
+  }
+
+  /**
+   * Construct a well-formed transmission from physical units which are waiting.
+   *
+   * @param config
+   *          The boiler characteristics to be used.
+   * @param level
+   *          The water level to report.
+   * @param open
+   *          The pumps to report as open (and flowing), indexed by pump number.
+   * @return The set of messages transmitted.
+   */
+  private static Mailbox waiting(SteamBoilerCharacteristics config, double level,
+      boolean[] open) {
+    Mailbox input = new RingMailbox(8 + (2 * config.getNumberOfPumps()));
+    input.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    input.send(new Message(MessageKind.LEVEL_v, level));
+    input.send(new Message(MessageKind.STEAM_v, 0.0));
+    for (int i = 0; i != config.getNumberOfPumps(); ++i) {
+      input.send(new Message(MessageKind.PUMP_STATE_n_b, i, open[i]));
+      input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, open[i]));
+    }
+    return input;
+  }
+
+  /**
+   * Determine which pumps were sent a given command.
+   *
+   * @param output
+   *          The messages sent by the controller.
+   * @param kind
+   *          The kind of pump command.
+   * @param config
+   *          The boiler characteristics to be used.
+   * @return The pumps commanded, indexed by pump number.
+   */
+  private static boolean[] commands(Mailbox output, MessageKind kind,
+      SteamBoilerCharacteristics config) {
+    boolean[] pumps = new boolean[config.getNumberOfPumps()];
+    for (int i = 0; i != output.size(); ++i) {
+      Message message = output.read(i);
+      if (message.getKind() == kind) {
+        pumps[message.getIntegerParameter()] = true;
+      }
+    }
+    return pumps;
+  }
+
+  /**
+   * Count the messages of a given kind.
+   *
+   * @param output
+   *          The messages sent by the controller.
+   * @param kind
+   *          The kind of message.
+   * @return The number of matching messages.
+   */
+  private static int count(Mailbox output, MessageKind kind) {
+    int n = 0;
+    for (int i = 0; i != output.size(); ++i) {
+      if (output.read(i).getKind() == kind) {
+        n = n + 1;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Count the pumps which are set.
+   *
+   * @param pumps
+   *          The pumps, indexed by pump number.
+   * @return The number set.
+   */
+  private static int count(boolean[] pumps) {
+    int n = 0;
+    for (boolean pump : pumps) {
+      if (pump) {
+        n = n + 1;
+      }
+    }
+    return n;
+  }
+}
@@ -0,0 +1,149 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.transmission;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.fleet.TickMetrics;
+import steam.boiler.net.Gateway;
+import steam.boiler.net.GatewayClient;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that controllers hosted behind a gateway respond over the loopback interface
+ * exactly as they would if clocked directly.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class GatewayTests {
+
+  /**
+   * Check several boilers batched into each frame receive the same responses as controllers
+   * clocked directly, over a number of cycles.
+   */
+  @Test
+  public void test_gateway_01() throws IOException, InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    final int boilers = 3;
+    final int cycles = 10;
+    Gateway gateway = new Gateway(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    MySteamBoilerController[] references = new MySteamBoilerController[boilers];
+    for (int i = 0; i != boilers; ++i) {
+      assertEquals(i, gateway.register(config));
+      references[i] = new MySteamBoilerController(config);
+    }
+    gateway.start();
+    try (GatewayClient client = new GatewayClient(gateway.getAddress(),
+        config.getNumberOfPumps())) {
+      for (int c = 0; c != cycles; ++c) {
+        String[] expected = new String[boilers];
+        for (int i = 0; i != boilers; ++i) {
+          // Each boiler reports a different level
+          Mailbox incoming = c == 0 ? waiting(config, 100 * (i + c))
+              : transmission(config, 100 * (i + c));
+          RingMailbox outgoing = new RingMailbox(64);
+          references[i].clock(incoming, outgoing);
+          expected[i] = outgoing.toString();
+          client.add(i, incoming);
+        }
+        int[] next = { 0 };
+        assertEquals(boilers, client.exchange((id, outgoing) -> {
+          assertEquals(next[0], id);
+          assertEquals(expected[id], outgoing.toString());
+          next[0]++;
+        }));
+      }
+      TickMetrics metrics = gateway.getMetrics();
+      assertEquals(cycles, metrics.getTicks());
+      assertEquals(0, metrics.getErrors());
+      assertEquals(1, gateway.getConnectionMetrics().size());
+    } finally {
+      gateway.stop();
+    }
+  }
+
+  /**
+   * Check messages addressed to an unknown boiler are counted as errors and get an empty
+   * response, without disturbing other boilers in the same frame.
+   */
+  @Test
+  public void test_gateway_02() throws IOException, InterruptedException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    Gateway gateway = new Gateway(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    gateway.register(config);
+    gateway.start();
+    try (GatewayClient client = new GatewayClient(gateway.getAddress(),
+        config.getNumberOfPumps())) {
+      client.add(7, waiting(config, 0));
+      client.add(0, waiting(config, 0));
+      int[] sizes = new int[2];
+      int[] next = { 0 };
+      client.exchange((id, outgoing) -> sizes[next[0]++] = outgoing.size());
+      assertEquals(0, sizes[0]);
+      assertTrue(sizes[1] > 0);
+      assertEquals(1, gateway.getMetrics().getErrors());
+    } finally {
+      gateway.stop();
+    }
+  }
+
+  /**
+   * Check a boiler which opens hundreds of pumps in a single cycle receives the same response as a
+   * controller clocked directly, alongside a small boiler.
+   */
+  @Test
+  public void test_gateway_03() throws IOException, InterruptedException {
+    SteamBoilerCharacteristics small = SteamBoilerCharacteristics.DEFAULT;
+    // Pumps too small for any number of them to overfill the boiler, so all are opened
+    SteamBoilerCharacteristics large = small.setNumberOfPumps(512, 0.1);
+    Gateway gateway = new Gateway(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    gateway.register(small);
+    gateway.register(large);
+    gateway.start();
+    try (GatewayClient client = new GatewayClient(gateway.getAddress(),
+        large.getNumberOfPumps())) {
+      String[] expected = new String[2];
+      SteamBoilerCharacteristics[] configs = { small, large };
+      for (int i = 0; i != 2; ++i) {
+        // Empty boiler, so pumps are opened to fill it
+        Mailbox incoming = waiting(configs[i], 0);
+        RingMailbox outgoing = new RingMailbox(4096);
+        new MySteamBoilerController(configs[i]).clock(incoming, outgoing);
+        expected[i] = outgoing.toString();
+        client.add(i, incoming);
+      }
+      assertTrue(expected[1].split(",").length > 512);
+      client.exchange((id, outgoing) -> assertEquals(expected[id], outgoing.toString()));
+      assertEquals(0, gateway.getMetrics().getErrors());
+    } finally {
+      gateway.stop();
+    }
+  }
+
+  /**
+   * Construct a well-formed transmission from physical units which are waiting.
+   *
+   * @param config
+   *          The boiler characteristics to be used.
+   * @param level
+   *          The water level to report.
+   * @return The set of messages transmitted.
+   */
+  private static Mailbox waiting(SteamBoilerCharacteristics config, double level) {
+    Mailbox input = transmission(config, level);
+    input.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    return input;
+  }
+}
@@ -0,0 +1,271 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.journal.CycleJournal;
+import steam.boiler.journal.JournalReader;
+import steam.boiler.journal.JournalReplay;
+import steam.boiler.journal.JournalingController;
+import steam.boiler.journal.MessageRecords;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that cycles recorded in a journal can be read back exactly, including across
+ * segments, that recording does not allocate, and that recorded runs replay identically.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class JournalTests {
+
+  /**
+   * Check cycles are read back in order with every parameter intact, when they span several
+   * segments.
+   */
+  @Test
+  public void test_journal_01() throws IOException {
+    Path directory = Files.createTempDirectory("journal");
+    try {
+      // Room for two cycles per segment
+      int segmentSize = 2 * 4 * MessageRecords.RECORD_SIZE;
+      try (CycleJournal journal = new CycleJournal(directory, segmentSize)) {
+        for (int i = 0; i != 9; ++i) {
+          journal.record(input(i), output(i));
+        }
+        assertEquals(9, journal.getCycles());
+        assertEquals(4, journal.getSegment());
+      }
+      JournalReader reader = new JournalReader(directory);
+      for (int i = 0; i != 9; ++i) {
+        assertCycle(reader, i);
+      }
+      assertFalse(reader.next(new RingMailbox(8), new RingMailbox(8)));
+    } finally {
+      delete(directory);
+    }
+  }
+
+  /**
+   * Check a journal opened on an existing directory continues after the segments already there,
+   * rather than overwriting them.
+   */
+  @Test
+  public void test_journal_02() throws IOException {
+    Path directory = Files.createTempDirectory("journal");
+    try {
+      try (CycleJournal journal = new CycleJournal(directory, 1024)) {
+        journal.record(input(0), output(0));
+      }
+      try (CycleJournal journal = new CycleJournal(directory, 1024)) {
+        assertEquals(1, journal.getSegment());
+        journal.record(input(1), output(1));
+      }
+      JournalReader reader = new JournalReader(directory);
+      assertCycle(reader, 0);
+      assertCycle(reader, 1);
+      assertFalse(reader.next(new RingMailbox(8), new RingMailbox(8)));
+    } finally {
+      delete(directory);
+    }
+  }
+
+  /**
+   * Check recording a cycle does not allocate, once warmed up.
+   */
+  @Test
+  public void test_journal_03() throws IOException {
+    final int cycles = 100_000;
+    Path directory = Files.createTempDirectory("journal");
+    try (CycleJournal journal = new CycleJournal(directory)) {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+          .getThreadMXBean();
+      long id = Thread.currentThread().getId();
+      Mailbox input = input(1);
+      Mailbox output = output(1);
+      for (int i = 0; i != cycles; ++i) {
+        journal.record(input, output);
+      }
+      long before = threads.getThreadAllocatedBytes(id);
+      for (int i = 0; i != cycles; ++i) {
+        journal.record(input, output);
+      }
+      long allocated = threads.getThreadAllocatedBytes(id) - before;
+      assertTrue("allocated " + allocated + " bytes over " + cycles + " cycles", allocated < 1024);
+    } finally {
+      delete(directory);
+    }
+  }
+
+  /**
+   * Check replaying a simulated run against a fresh controller reproduces every recorded output.
+   */
+  @Test
+  public void test_journal_04() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    Path directory = Files.createTempDirectory("journal");
+    try {
+      record(directory, config, 300);
+      JournalReplay.Result result = new JournalReplay(() -> new MySteamBoilerController(config))
+          .replay(directory);
+      assertEquals(60, result.getCycles());
+      assertTrue(result.toString(), result.isIdentical());
+    } finally {
+      delete(directory);
+    }
+  }
+
+  /**
+   * Check several journals replayed in parallel each give their own outcome, and that a controller
+   * which behaves differently from that recorded is caught.
+   */
+  @Test
+  public void test_journal_05() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    Path[] directories = new Path[4];
+    try {
+      for (int i = 0; i != directories.length; ++i) {
+        directories[i] = Files.createTempDirectory("journal");
+        record(directories[i], config, 60 * (i + 1));
+      }
+      List<Path> journals = Arrays.asList(directories);
+      List<JournalReplay.Result> results = new JournalReplay(
+          () -> new MySteamBoilerController(config)).replay(journals);
+      assertEquals(directories.length, results.size());
+      for (int i = 0; i != directories.length; ++i) {
+        assertEquals(directories[i], results.get(i).getJournal());
+        assertEquals(12 * (i + 1), results.get(i).getCycles());
+        assertTrue(results.get(i).toString(), results.get(i).isIdentical());
+      }
+      // A controller which never responds diverges from the very first cycle, and then on every
+      // cycle where the recorded controller sent something
+      results = new JournalReplay(() -> new SilentController()).replay(journals);
+      for (int i = 0; i != directories.length; ++i) {
+        JournalReplay.Result result = results.get(i);
+        assertTrue(result.toString(), result.getDivergences() > 0);
+        assertEquals(0, result.getFirstDivergence());
+        assertEquals(responses(directories[i]), result.getDivergences());
+      }
+    } finally {
+      for (Path directory : directories) {
+        if (directory != null) {
+          delete(directory);
+        }
+      }
+    }
+  }
+
+  /**
+   * Record a run of the controller against simulated physical units, starting from an empty
+   * boiler.
+   *
+   * @param directory
+   *          The journal directory.
+   * @param config
+   *          The boiler characteristics to use.
+   * @param time
+   *          The length (in seconds) of the run.
+   */
+  private static void record(Path directory, SteamBoilerCharacteristics config, int time)
+      throws IOException {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    RingMailbox input = new RingMailbox(128);
+    RingMailbox output = new RingMailbox(128);
+    try (CycleJournal journal = new CycleJournal(directory, 4096)) {
+      JournalingController controller = new JournalingController(
+          new MySteamBoilerController(config), journal);
+      for (int t = 0; t < time; t += 5) {
+        input.clear();
+        output.clear();
+        model.transmit(input);
+        controller.clock(input, output);
+        model.receive(output);
+        model.clock(5000);
+      }
+    }
+  }
+
+  /**
+   * Count the recorded cycles in which the controller sent at least one message.
+   *
+   * @param directory
+   *          The journal directory.
+   * @return The number of such cycles.
+   */
+  private static long responses(Path directory) throws IOException {
+    JournalReader reader = new JournalReader(directory);
+    RingMailbox incoming = new RingMailbox(128);
+    RingMailbox outgoing = new RingMailbox(128);
+    long count = 0;
+    while (reader.next(incoming, outgoing)) {
+      if (outgoing.size() > 0) {
+        count = count + 1;
+      }
+      incoming.clear();
+      outgoing.clear();
+    }
+    return count;
+  }
+
+  private static void assertCycle(JournalReader reader, int i) throws IOException {
+    RingMailbox incoming = new RingMailbox(8);
+    RingMailbox outgoing = new RingMailbox(8);
+    assertTrue(reader.next(incoming, outgoing));
+    assertEquals(input(i).toString(), incoming.toString());
+    assertEquals(output(i).toString(), outgoing.toString());
+  }
+
+  private static Mailbox input(int i) {
+    RingMailbox mailbox = new RingMailbox(8);
+    mailbox.send(new Message(MessageKind.LEVEL_v, 100.5 + i));
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, i, (i % 2) == 0));
+    return mailbox;
+  }
+
+  private static Mailbox output(int i) {
+    RingMailbox mailbox = new RingMailbox(8);
+    mailbox.send(new Message(MessageKind.MODE_m, Mode.values()[i % Mode.values().length]));
+    return mailbox;
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+    }
+  }
+
+  /**
+   * A controller which ignores everything it receives.
+   */
+  private static class SilentController implements SteamBoilerController {
+    @Override
+    public String getStatusMessage() {
+      return "silent";
+    }
+
+    @Override
+    public void clock(Mailbox incoming, Mailbox outgoing) {
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MessageCache;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.net.WireCodec;
+import steam.boiler.net.WireMailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * These tests check the mailbox implementations used to exchange messages between controllers and
+ * physical units.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MailboxTests {
+
+  /**
+   * Check ring mailbox can be reused across many cycles, wrapping around its buffer.
+   */
+  @Test
+  public void test_ring_mailbox_01() {
+    RingMailbox mailbox = new RingMailbox(5);
+    assertEquals(8, mailbox.capacity());
+    for (int cycle = 0; cycle != 100; ++cycle) {
+      for (int i = 0; i != 3; ++i) {
+        mailbox.send(new Message(MessageKind.OPEN_PUMP_n, cycle + i));
+      }
+      assertEquals(3, mailbox.size());
+      for (int i = 0; i != 3; ++i) {
+        assertEquals(cycle + i, mailbox.read(i).getIntegerParameter());
+      }
+      mailbox.clear();
+      assertEquals(0, mailbox.size());
+    }
+  }
+
+  /**
+   * Check ring mailbox refuses messages once full.
+   */
+  @Test
+  public void test_ring_mailbox_02() {
+    RingMailbox mailbox = new RingMailbox(4);
+    Message m = new Message(MessageKind.VALVE);
+    for (int i = 0; i != 4; ++i) {
+      mailbox.send(m);
+    }
+    try {
+      mailbox.send(m);
+      fail("mailbox should be full");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    mailbox.clear();
+    mailbox.send(m);
+    assertSame(m, mailbox.read(0));
+  }
+
+  /**
+   * Check ring mailbox delivers every message, in order, from a producer thread to a consumer
+   * thread.
+   */
+  @Test
+  public void test_ring_mailbox_03() throws InterruptedException {
+    final int total = 100_000;
+    final RingMailbox mailbox = new RingMailbox(64);
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i != total; ) {
+        try {
+          mailbox.send(new Message(MessageKind.OPEN_PUMP_n, i));
+          i = i + 1;
+        } catch (IllegalStateException e) {
+          // Consumer has fallen behind, so try again
+          Thread.yield();
+        }
+      }
+    });
+    producer.start();
+    int expected = 0;
+    while (expected != total) {
+      int n = mailbox.size();
+      if (n == 0) {
+        Thread.yield();
+      }
+      for (int i = 0; i != n; ++i) {
+        assertEquals(expected++, mailbox.read(i).getIntegerParameter());
+      }
+      mailbox.discard(n);
+    }
+    producer.join();
+  }
+
+  /**
+   * Check every kind of parameter survives encoding and decoding, and that a buffer holding
+   * several mailboxes is decoded one at a time.
+   */
+  @Test
+  public void test_wire_mailbox_01() {
+    RingMailbox mailbox = new RingMailbox(8);
+    mailbox.send(new Message(MessageKind.PROGRAM_READY));
+    mailbox.send(new Message(MessageKind.MODE_m, Mode.DEGRADED));
+    mailbox.send(new Message(MessageKind.OPEN_PUMP_n, 3));
+    mailbox.send(new Message(MessageKind.LEVEL_v, 123.25));
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 1, true));
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    WireCodec.encode(mailbox, buffer);
+    WireCodec.encode(mailbox, buffer);
+    assertEquals(2 * WireCodec.size(mailbox), buffer.position());
+    buffer.flip();
+    WireMailbox view = new WireMailbox(4);
+    for (int i = 0; i != 2; ++i) {
+      assertEquals(WireCodec.size(mailbox), WireCodec.complete(buffer));
+      WireCodec.decode(buffer, view);
+      assertEquals(mailbox.toString(), view.toString());
+      assertEquals(Mode.DEGRADED, view.getModeParameter(1));
+      assertEquals(3, view.getIntegerParameter(2));
+      assertEquals(123.25, view.getDoubleParameter(3), 0.0);
+      assertEquals(1, view.getIntegerParameter(4));
+      assertTrue(view.getBooleanParameter(4));
+    }
+    assertEquals(0, buffer.remaining());
+  }
+
+  /**
+   * Check decoding and reading messages back does not allocate, other than for messages carrying
+   * a double parameter. Messages for pumps within the boiler are shared instances.
+   */
+  @Test
+  public void test_wire_mailbox_02() {
+    final int cycles = 100_000;
+    RingMailbox mailbox = new RingMailbox(16);
+    mailbox.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    for (int i = 0; i != 4; ++i) {
+      mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+      mailbox.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, true));
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+    WireCodec.encode(mailbox, buffer);
+    buffer.flip();
+    WireMailbox view = new WireMailbox(4);
+    WireCodec.decode(buffer, view);
+    assertSame(MessageCache.forPumps(4).get(MessageKind.PUMP_STATE_n_b, 2, false), view.read(5));
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    long id = Thread.currentThread().getId();
+    long before = 0;
+    int sink = 0;
+    for (int c = 0; c != 2 * cycles; ++c) {
+      if (c == cycles) {
+        before = threads.getThreadAllocatedBytes(id);
+      }
+      buffer.rewind();
+      WireCodec.decode(buffer, view);
+      for (int i = 0; i != view.size(); ++i) {
+        sink += view.read(i).getKind().ordinal();
+      }
+    }
+    long allocated = threads.getThreadAllocatedBytes(id) - before;
+    assertTrue("allocated " + allocated + " bytes (" + sink + ")", allocated < 1024);
+  }
+
+  /**
+   * Check incomplete and malformed mailboxes are detected.
+   */
+  @Test
+  public void test_wire_mailbox_03() {
+    RingMailbox mailbox = new RingMailbox(4);
+    mailbox.send(new Message(MessageKind.STEAM_v, 1.0));
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    WireCodec.encode(mailbox, buffer);
+    buffer.flip();
+    // Every strict prefix is incomplete
+    for (int i = 0; i < buffer.limit(); ++i) {
+      ByteBuffer prefix = buffer.duplicate();
+      prefix.limit(i);
+      assertEquals(-1, WireCodec.complete(prefix));
+    }
+    buffer.put(2, (byte) 0xFF);
+    try {
+      WireCodec.decode(buffer, new WireMailbox(4));
+      fail("invalid message kind accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
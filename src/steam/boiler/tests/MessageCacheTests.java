@@ -0,0 +1,160 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MessageCache;
+import steam.boiler.core.MessageParameter;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * These tests check the classification of message kinds by parameter, and the preconstructed
+ * messages shared between controllers.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MessageCacheTests {
+
+  /**
+   * Check the kinds exchanged with the physical units are classified by their parameter.
+   */
+  @Test
+  public void test_message_parameter_01() {
+    assertEquals(MessageParameter.MODE, MessageParameter.of(MessageKind.MODE_m));
+    assertEquals(MessageParameter.NONE, MessageParameter.of(MessageKind.PROGRAM_READY));
+    assertEquals(MessageParameter.NONE, MessageParameter.of(MessageKind.VALVE));
+    assertEquals(MessageParameter.NONE, MessageParameter.of(MessageKind.STEAM_BOILER_WAITING));
+    assertEquals(MessageParameter.NONE, MessageParameter.of(MessageKind.PHYSICAL_UNITS_READY));
+    assertEquals(MessageParameter.NONE, MessageParameter.of(MessageKind.LEVEL_FAILURE_DETECTION));
+    assertEquals(MessageParameter.NONE, MessageParameter.of(MessageKind.STEAM_FAILURE_DETECTION));
+    assertEquals(MessageParameter.INTEGER, MessageParameter.of(MessageKind.OPEN_PUMP_n));
+    assertEquals(MessageParameter.INTEGER, MessageParameter.of(MessageKind.CLOSE_PUMP_n));
+    assertEquals(MessageParameter.INTEGER,
+        MessageParameter.of(MessageKind.PUMP_FAILURE_DETECTION_n));
+    assertEquals(MessageParameter.INTEGER,
+        MessageParameter.of(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n));
+    assertEquals(MessageParameter.INTEGER_BOOLEAN,
+        MessageParameter.of(MessageKind.PUMP_STATE_n_b));
+    assertEquals(MessageParameter.INTEGER_BOOLEAN,
+        MessageParameter.of(MessageKind.PUMP_CONTROL_STATE_n_b));
+    assertEquals(MessageParameter.DOUBLE, MessageParameter.of(MessageKind.LEVEL_v));
+    assertEquals(MessageParameter.DOUBLE, MessageParameter.of(MessageKind.STEAM_v));
+  }
+
+  /**
+   * Check every kind is classified, and that its class agrees with the suffix of its name. In
+   * particular, the <code>_n_b</code> suffix must not be mistaken for <code>_b</code>, and only
+   * <code>MODE_m</code> carries a mode.
+   */
+  @Test
+  public void test_message_parameter_02() {
+    for (MessageKind kind : MessageKind.values()) {
+      MessageParameter parameter = MessageParameter.of(kind);
+      assertNotNull(kind.name(), parameter);
+      String name = kind.name();
+      MessageParameter expected;
+      if (name.endsWith("_n_b")) {
+        expected = MessageParameter.INTEGER_BOOLEAN;
+      } else if (name.endsWith("_n")) {
+        expected = MessageParameter.INTEGER;
+      } else if (name.endsWith("_b")) {
+        expected = MessageParameter.BOOLEAN;
+      } else if (name.endsWith("_v")) {
+        expected = MessageParameter.DOUBLE;
+      } else if (kind == MessageKind.MODE_m) {
+        expected = MessageParameter.MODE;
+      } else {
+        expected = MessageParameter.NONE;
+      }
+      assertEquals(name, expected, parameter);
+    }
+  }
+
+  /**
+   * Check parameterless messages are shared, and have the right kind.
+   */
+  @Test
+  public void test_message_cache_01() {
+    MessageCache cache = MessageCache.forPumps(4);
+    for (MessageKind kind : MessageKind.values()) {
+      if (MessageParameter.of(kind) == MessageParameter.NONE) {
+        Message m = cache.get(kind);
+        assertEquals(kind, m.getKind());
+        assertSame(m, cache.get(kind));
+      } else {
+        try {
+          cache.get(kind);
+          fail("kind requires a parameter: " + kind);
+        } catch (IllegalArgumentException e) {
+          // expected
+        }
+      }
+    }
+  }
+
+  /**
+   * Check mode messages are shared, and carry the right mode.
+   */
+  @Test
+  public void test_message_cache_02() {
+    MessageCache cache = MessageCache.forPumps(4);
+    for (Mode mode : Mode.values()) {
+      Message m = cache.mode(mode);
+      assertEquals(MessageKind.MODE_m, m.getKind());
+      assertEquals(mode, m.getModeParameter());
+      assertSame(m, cache.mode(mode));
+    }
+  }
+
+  /**
+   * Check pump numbered messages are shared, and carry the right pump number (and state) for every
+   * pump.
+   */
+  @Test
+  public void test_message_cache_03() {
+    final int n = 6;
+    MessageCache cache = MessageCache.forPumps(n);
+    assertEquals(n, cache.getNumberOfPumps());
+    for (MessageKind kind : MessageKind.values()) {
+      for (int i = 0; i != n; ++i) {
+        switch (MessageParameter.of(kind)) {
+          case INTEGER: {
+            Message m = cache.get(kind, i);
+            assertEquals(kind, m.getKind());
+            assertEquals(i, m.getIntegerParameter());
+            assertSame(m, cache.get(kind, i));
+            break;
+          }
+          case INTEGER_BOOLEAN:
+            for (boolean b : new boolean[] { false, true }) {
+              Message m = cache.get(kind, i, b);
+              assertEquals(kind, m.getKind());
+              assertEquals(i, m.getIntegerParameter());
+              assertEquals(b, m.getBooleanParameter());
+              assertSame(m, cache.get(kind, i, b));
+            }
+            break;
+          default:
+            // Not pump numbered
+        }
+      }
+    }
+  }
+
+  /**
+   * Check caches are shared between controllers with the same number of pumps only.
+   */
+  @Test
+  public void test_message_cache_04() {
+    assertSame(MessageCache.forPumps(4), MessageCache.forPumps(4));
+    assertEquals(1, MessageCache.forPumps(1).getNumberOfPumps());
+    assertEquals(4, MessageCache.forPumps(4).getNumberOfPumps());
+  }
+}
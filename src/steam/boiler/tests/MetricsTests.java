@@ -0,0 +1,192 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.handshake;
+import static steam.boiler.tests.TestUtils.midpoint;
+import static steam.boiler.tests.TestUtils.transmission;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.ControllerMetrics;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.MySteamBoilerController.State;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the metrics recorded by an instrumented controller, namely the transitions
+ * between states, the time spent in each and the latency of each cycle. They also check the flight
+ * recorder events emitted by the controller.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MetricsTests {
+
+  /**
+   * Check transitions and residency are recorded through the handshake into normal mode, and then
+   * into emergency stop.
+   */
+  @Test
+  public void test_metrics_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    ControllerMetrics metrics = new ControllerMetrics();
+    controller.setMetrics(metrics);
+    handshake(config, controller);
+    controller.clock(transmission(config, midpoint(config)), new RingMailbox(64));
+    // Missing level reading
+    Mailbox broken = transmission(config, Double.NaN);
+    controller.clock(broken, new RingMailbox(64));
+    //
+    assertEquals(4, metrics.getCount());
+    assertEquals(1, metrics.getTransitions(State.WAITING, State.READY));
+    assertEquals(1, metrics.getTransitions(State.READY, State.NORMAL));
+    assertEquals(1, metrics.getTransitions(State.NORMAL, State.EMERGENCY_STOP));
+    assertEquals(0, metrics.getTransitions(State.WAITING, State.NORMAL));
+    assertEquals(0, metrics.getResidency(State.WAITING));
+    assertEquals(1, metrics.getResidency(State.READY));
+    assertEquals(2, metrics.getResidency(State.NORMAL));
+    assertEquals(1, metrics.getResidency(State.EMERGENCY_STOP));
+  }
+
+  /**
+   * Check latency percentiles are ordered and bounded by the largest latency recorded.
+   */
+  @Test
+  public void test_metrics_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    ControllerMetrics metrics = new ControllerMetrics();
+    controller.setMetrics(metrics);
+    Mailbox input = transmission(config, 0);
+    RingMailbox output = new RingMailbox(64);
+    for (int i = 0; i != 10_000; ++i) {
+      output.clear();
+      controller.clock(input, output);
+    }
+    assertEquals(10_000, metrics.getCount());
+    assertEquals(10_000, metrics.getResidency(State.WAITING));
+    long p50 = metrics.getLatencyPercentile(50);
+    long p99 = metrics.getLatencyPercentile(99);
+    long max = metrics.getMaxLatency();
+    assertTrue(metrics.getMeanLatency() > 0);
+    assertTrue(p50 <= p99);
+    assertTrue(p99 <= max);
+    assertEquals(max, metrics.getLatencyPercentile(100));
+  }
+
+  /**
+   * Check snapshots are unaffected by later cycles, that they can be aggregated across
+   * controllers, and that forked controllers are not instrumented.
+   */
+  @Test
+  public void test_metrics_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController first = new MySteamBoilerController(config);
+    MySteamBoilerController second = new MySteamBoilerController(config);
+    ControllerMetrics firstMetrics = new ControllerMetrics();
+    ControllerMetrics secondMetrics = new ControllerMetrics();
+    first.setMetrics(firstMetrics);
+    second.setMetrics(secondMetrics);
+    handshake(config, first);
+    first.clock(transmission(config, midpoint(config)), new RingMailbox(64));
+    ControllerMetrics snapshot = firstMetrics.snapshot();
+    MySteamBoilerController fork = new MySteamBoilerController(first);
+    assertNull(fork.getMetrics());
+    // Level within limits, since an empty boiler in normal mode is an emergency
+    first.clock(transmission(config, midpoint(config)), new RingMailbox(64));
+    second.clock(transmission(config, 0), new RingMailbox(64));
+    assertEquals(3, snapshot.getCount());
+    assertEquals(4, firstMetrics.getCount());
+    //
+    ControllerMetrics total = new ControllerMetrics();
+    total.add(firstMetrics);
+    total.add(secondMetrics);
+    assertEquals(5, total.getCount());
+    assertEquals(3, total.getResidency(State.NORMAL));
+    assertEquals(1, total.getResidency(State.WAITING));
+    assertEquals(1, total.getTransitions(State.READY, State.NORMAL));
+    assertEquals(Math.max(firstMetrics.getMaxLatency(), secondMetrics.getMaxLatency()),
+        total.getMaxLatency());
+  }
+
+  /**
+   * Check flight recorder events are emitted for every cycle, transition, command and transmission
+   * failure, and are attributed to the right boiler.
+   */
+  @Test
+  public void test_metrics_04() throws IOException {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    controller.setBoilerId(7);
+    Path file = Files.createTempFile("controller", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("steam.boiler.Clock");
+      recording.enable("steam.boiler.Transition");
+      recording.enable("steam.boiler.Command");
+      recording.enable("steam.boiler.TransmissionFailure");
+      recording.start();
+      // Empty boiler, so pumps are opened
+      Mailbox empty = transmission(config, 0);
+      empty.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+      controller.clock(empty, new RingMailbox(64));
+      handshake(config, controller);
+      controller.clock(transmission(config, midpoint(config)), new RingMailbox(64));
+      controller.clock(transmission(config, Double.NaN), new RingMailbox(64));
+      recording.stop();
+      recording.dump(file);
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      Map<String, Integer> counts = new HashMap<>();
+      for (RecordedEvent event : events) {
+        assertEquals(7, event.getInt("boilerId"));
+        counts.merge(event.getEventType().getName(), 1, Integer::sum);
+      }
+      assertEquals(Integer.valueOf(5), counts.get("steam.boiler.Clock"));
+      assertEquals(Integer.valueOf(3), counts.get("steam.boiler.Transition"));
+      // Every pump opened to fill, then closed once ready
+      assertEquals(Integer.valueOf(2 * config.getNumberOfPumps()),
+          counts.get("steam.boiler.Command"));
+      assertEquals(Integer.valueOf(1), counts.get("steam.boiler.TransmissionFailure"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Check physical units signalling both waiting and ready in the same cycle are recorded as a
+   * single transition from waiting to normal mode, without any time spent ready.
+   */
+  @Test
+  public void test_metrics_05() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    ControllerMetrics metrics = new ControllerMetrics();
+    controller.setMetrics(metrics);
+    for (int i = 0; i != 2; ++i) {
+      Mailbox input = transmission(config, midpoint(config));
+      input.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+      input.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+      controller.clock(input, new RingMailbox(64));
+    }
+    assertEquals(1, metrics.getTransitions(State.WAITING, State.NORMAL));
+    assertEquals(0, metrics.getResidency(State.READY));
+    assertEquals(2, metrics.getResidency(State.NORMAL));
+  }
+}
@@ -0,0 +1,198 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.LevelPredictor;
+import steam.boiler.core.PumpSelector;
+
+/**
+ * These tests check the level predictor and pump selector against an exhaustive enumeration of
+ * every combination of open pumps, for boilers with few enough pumps that this is feasible.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PredictorTests {
+  /**
+   * Tolerance for comparing sums of capacities computed in a different order.
+   */
+  private static final double EPSILON = 1e-9;
+
+  /**
+   * Check the envelope for each number of open pumps is exactly the lowest and highest level over
+   * all combinations of that many pumps.
+   */
+  @Test
+  public void test_predictor_01() {
+    Random random = new Random(1);
+    for (int n = 0; n <= 10; ++n) {
+      double[] capacities = capacities(random, n);
+      LevelPredictor predictor = new LevelPredictor(capacities, 10);
+      double[] lowest = new double[n + 1];
+      double[] highest = new double[n + 1];
+      Arrays.fill(lowest, Double.POSITIVE_INFINITY);
+      Arrays.fill(highest, Double.NEGATIVE_INFINITY);
+      for (int pumps = 0; pumps != (1 << n); ++pumps) {
+        double flow = 0;
+        for (int i = 0; i != n; ++i) {
+          if ((pumps & (1 << i)) != 0) {
+            flow += capacities[i];
+          }
+        }
+        double level = predictor.predict(500, 7.5, true, flow);
+        int k = Integer.bitCount(pumps);
+        lowest[k] = Math.min(lowest[k], level);
+        highest[k] = Math.max(highest[k], level);
+      }
+      for (int k = 0; k <= n; ++k) {
+        assertEquals(lowest[k], predictor.getMinimalLevel(500, 7.5, true, k), EPSILON);
+        assertEquals(highest[k], predictor.getMaximalLevel(500, 7.5, true, k), EPSILON);
+      }
+    }
+  }
+
+  /**
+   * Check the binary searches for the number of pumps agree with a linear scan of the envelope.
+   */
+  @Test
+  public void test_predictor_02() {
+    Random random = new Random(2);
+    for (int n = 0; n <= 64; ++n) {
+      LevelPredictor predictor = new LevelPredictor(capacities(random, n), 10);
+      for (int j = 0; j != 100; ++j) {
+        double level = random.nextDouble() * 1000;
+        double steam = random.nextDouble() * 20;
+        boolean valve = random.nextBoolean();
+        double bound = random.nextDouble() * 1000;
+        int minimal = n + 1;
+        for (int k = n; k >= 0; --k) {
+          if (predictor.getMinimalLevel(level, steam, valve, k) >= bound) {
+            minimal = k;
+          }
+        }
+        int maximal = -1;
+        for (int k = 0; k <= n; ++k) {
+          if (predictor.getMaximalLevel(level, steam, valve, k) <= bound) {
+            maximal = k;
+          }
+        }
+        assertEquals(minimal, predictor.getMinimalPumps(level, steam, valve, bound));
+        assertEquals(maximal, predictor.getMaximalPumps(level, steam, valve, bound));
+      }
+    }
+  }
+
+  /**
+   * Check pumps are ranked by capacity, and ranks map back to the original pump numbers.
+   */
+  @Test
+  public void test_predictor_03() {
+    double[] capacities = { 8, 2, 5, 2, 11 };
+    LevelPredictor predictor = new LevelPredictor(capacities, 0);
+    assertEquals(5, predictor.getNumberOfPumps());
+    for (int r = 0; r != capacities.length; ++r) {
+      assertEquals(capacities[predictor.getPump(r)], predictor.getCapacity(r), 0);
+      if (r > 0) {
+        assertTrue(predictor.getCapacity(r - 1) <= predictor.getCapacity(r));
+      }
+    }
+    assertEquals(4, predictor.getMinimalFlow(2), 0);
+    assertEquals(19, predictor.getMaximalFlow(2), 0);
+    assertEquals(28, predictor.getMaximalFlow(5), 0);
+  }
+
+  /**
+   * Check the selector finds a combination of pumps landing as close to the target as the best of
+   * all combinations, given an unlimited budget.
+   */
+  @Test
+  public void test_predictor_04() {
+    Random random = new Random(4);
+    for (int n = 0; n <= 12; ++n) {
+      double[] capacities = capacities(random, n);
+      LevelPredictor predictor = new LevelPredictor(capacities, 10);
+      PumpSelector selector = new PumpSelector(predictor, Integer.MAX_VALUE, 0);
+      boolean[] open = new boolean[n];
+      for (int j = 0; j != 20; ++j) {
+        double level = random.nextDouble() * 1000;
+        double steam = random.nextDouble() * 20;
+        boolean valve = random.nextBoolean();
+        double target = random.nextDouble() * 1000;
+        double closest = Double.POSITIVE_INFINITY;
+        for (int pumps = 0; pumps != (1 << n); ++pumps) {
+          double flow = 0;
+          for (int i = 0; i != n; ++i) {
+            if ((pumps & (1 << i)) != 0) {
+              flow += capacities[i];
+            }
+          }
+          closest = Math.min(closest,
+              Math.abs(predictor.predict(level, steam, valve, flow) - target));
+        }
+        double predicted = selector.select(level, steam, valve, target, open);
+        double flow = 0;
+        for (int i = 0; i != n; ++i) {
+          flow += open[i] ? capacities[i] : 0;
+        }
+        assertEquals(predictor.predict(level, steam, valve, flow), predicted, EPSILON);
+        assertEquals(closest, Math.abs(predicted - target), EPSILON);
+      }
+    }
+  }
+
+  /**
+   * Check the selector respects its budget for large boilers, and is still exact for boilers whose
+   * pumps are all the same (where the default tolerance is smaller than any difference).
+   */
+  @Test
+  public void test_predictor_05() {
+    Random random = new Random(5);
+    boolean[] open = new boolean[256];
+    // Distinct capacities
+    LevelPredictor mixed = new LevelPredictor(capacities(random, 256), 0);
+    PumpSelector selector = new PumpSelector(mixed, 1000, 0);
+    for (int j = 0; j != 100; ++j) {
+      double target = random.nextDouble() * 10_000;
+      double predicted = selector.select(0, 0, false, target, open);
+      assertTrue(selector.getNodes() <= 1000);
+      assertTrue(Math.abs(predicted - target) <= LevelPredictor.CYCLE * mixed.getCapacity(255));
+    }
+    // Identical capacities
+    double[] capacities = new double[256];
+    Arrays.fill(capacities, 4.0);
+    selector = new PumpSelector(new LevelPredictor(capacities, 0));
+    for (int k = 0; k <= 256; ++k) {
+      double predicted = selector.select(0, 0, false, (k * 4.0 * LevelPredictor.CYCLE) + 1, open);
+      assertEquals((k * 4.0 * LevelPredictor.CYCLE), predicted, EPSILON);
+      int count = 0;
+      for (boolean b : open) {
+        count += b ? 1 : 0;
+      }
+      assertEquals(k, count);
+    }
+  }
+
+  /**
+   * Generate random pump capacities, including some duplicates.
+   *
+   * @param random
+   *          The source of randomness.
+   * @param n
+   *          The number of pumps.
+   * @return The capacity of each pump.
+   */
+  private static double[] capacities(Random random, int n) {
+    double[] capacities = new double[n];
+    for (int i = 0; i != n; ++i) {
+      capacities[i] = (i > 0 && random.nextInt(4) == 0) ? capacities[i - 1]
+          : 1 + random.nextInt(20) + random.nextDouble();
+    }
+    return capacities;
+  }
+}
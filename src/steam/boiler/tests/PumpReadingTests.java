@@ -0,0 +1,167 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.PROGRAM_READY;
+import static steam.boiler.tests.TestUtils.atleast;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check that the controller decodes pump readings correctly, for boilers with both few
+ * and many pumps. A set of readings is only accepted if every pump and pump controller reports
+ * exactly once. Otherwise, the controller must emergency stop. Boilers with more than 64 pumps are
+ * included, since their readings span more than one word.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PumpReadingTests {
+  /**
+   * Numbers of pumps checked, either side of each word boundary.
+   */
+  private static final int[] PUMPS = { 2, 4, 63, 64, 65, 128, 200 };
+
+  /**
+   * Check a complete set of readings is accepted, regardless of the order pumps report in.
+   */
+  @Test
+  public void test_pump_readings_01() {
+    for (int n : PUMPS) {
+      Mailbox input = transmission(n);
+      for (int i = n - 1; i >= 0; --i) {
+        input.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+        input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+      }
+      assertAccepted(n, input);
+    }
+  }
+
+  /**
+   * Check readings missing a pump are rejected.
+   */
+  @Test
+  public void test_pump_readings_02() {
+    for (int n : PUMPS) {
+      Mailbox input = transmission(n);
+      for (int i = 0; i != n; ++i) {
+        if (i != n / 2) {
+          input.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+        }
+        input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+      }
+      assertRejected(n, input);
+    }
+  }
+
+  /**
+   * Check readings reporting a pump twice are rejected, even when the number of readings is right
+   * because another pump is missing.
+   */
+  @Test
+  public void test_pump_readings_03() {
+    for (int n : PUMPS) {
+      Mailbox input = transmission(n);
+      for (int i = 0; i != n; ++i) {
+        input.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+        // The last pump controller is replaced by a duplicate of the first
+        int pump = i == n - 1 ? 0 : i;
+        input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, pump, false));
+      }
+      assertRejected(n, input);
+    }
+  }
+
+  /**
+   * Check readings with an out-of-range pump number are rejected, even when the number of readings
+   * is right.
+   */
+  @Test
+  public void test_pump_readings_04() {
+    for (int n : PUMPS) {
+      for (int invalid : new int[] { -1, n, n + 64 }) {
+        Mailbox input = transmission(n);
+        for (int i = 0; i != n; ++i) {
+          // The last pump is replaced by one which does not exist
+          int pump = i == n - 1 ? invalid : i;
+          input.send(new Message(MessageKind.PUMP_STATE_n_b, pump, false));
+          input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+        }
+        assertRejected(n, input);
+      }
+    }
+  }
+
+  /**
+   * Clock a fresh controller with a given set of readings, and check it gets ready.
+   *
+   * @param n
+   *          The number of pumps in the boiler.
+   * @param input
+   *          The messages from the physical units.
+   */
+  private static void assertAccepted(int n, Mailbox input) {
+    MySteamBoilerController controller = new MySteamBoilerController(characteristics(n));
+    Mailbox output = new UnboundedMailbox(n + 10);
+    controller.clock(input, output);
+    assertEquals(n + " pumps", "READY", controller.getStatusMessage());
+    assertTrue(n + " pumps", atleast(PROGRAM_READY).matches(output));
+    assertFalse(n + " pumps", atleast(MODE_emergencystop).matches(output));
+  }
+
+  /**
+   * Clock a fresh controller with a given set of readings, and check it emergency stops.
+   *
+   * @param n
+   *          The number of pumps in the boiler.
+   * @param input
+   *          The messages from the physical units.
+   */
+  private static void assertRejected(int n, Mailbox input) {
+    MySteamBoilerController controller = new MySteamBoilerController(characteristics(n));
+    Mailbox output = new UnboundedMailbox(n + 10);
+    controller.clock(input, output);
+    assertEquals(n + " pumps", "EMERGENCY_STOP", controller.getStatusMessage());
+    assertTrue(n + " pumps", atleast(MODE_emergencystop).matches(output));
+  }
+
+  /**
+   * Construct the start of a transmission from physical units which are waiting, with the level
+   * already in the normal range. The pump readings are left to the caller.
+   *
+   * @param n
+   *          The number of pumps in the boiler.
+   * @return The mailbox of messages transmitted.
+   */
+  private static Mailbox transmission(int n) {
+    SteamBoilerCharacteristics config = characteristics(n);
+    double midpoint = FunctionalTests.average(config.getMinimalNormalLevel(),
+        config.getMaximalNormalLevel());
+    Mailbox input = new UnboundedMailbox((2 * n) + 10);
+    input.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    input.send(new Message(MessageKind.LEVEL_v, midpoint));
+    input.send(new Message(MessageKind.STEAM_v, 0.0));
+    return input;
+  }
+
+  /**
+   * Construct the default characteristics with a given number of pumps.
+   *
+   * @param n
+   *          The number of pumps.
+   * @return The boiler characteristics.
+   */
+  private static SteamBoilerCharacteristics characteristics(int n) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    return config.setNumberOfPumps(n, config.getPumpCapacity(0));
+  }
+}
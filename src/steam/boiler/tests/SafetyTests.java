@@ -89,20 +89,15 @@ public class SafetyTests {
   @Test
   public void safetytest_04() {
     SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
-    // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      MySteamBoilerController controller = new MySteamBoilerController(config);
-      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-      model.setMode(PhysicalUnits.Mode.WAITING);
-      // Clock system for a given amount of time. We're not expecting anything to go
-      // wrong during this time.
-      clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-      // Configure the level sensor to fail
-      model.setLevelSensor(new LevelSensorModels.TxFailure(model));
-      // FIRST
-      clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-      // DONE
-    }
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    // Check various time frames before transmission failure. We're not expecting anything to go
+    // wrong before the level sensor fails, and then expect an emergency stop straight away.
+    clockForkingEverySecond(120, controller, model, atleast(MODE_emergencystop),
+        atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN, (PhysicalUnits m) -> swap(
+            m::getLevelSensor, m::setLevelSensor, new LevelSensorModels.TxFailure(m)));
+    // DONE
   }
 
   /**
@@ -111,20 +106,15 @@ public class SafetyTests {
   @Test
   public void safetytest_05() {
     SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
-    // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      MySteamBoilerController controller = new MySteamBoilerController(config);
-      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-      model.setMode(PhysicalUnits.Mode.WAITING);
-      // Clock system for a given amount of time. We're not expecting anything to go
-      // wrong during this time.
-      clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-      // Configure the steam sensor to fail
-      model.setSteamSensor(new SteamSensorModels.TxFailure(model));
-      // FIRST
-      clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-      // DONE
-    }
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    // Check various time frames before transmission failure. We're not expecting anything to go
+    // wrong before the steam sensor fails, and then expect an emergency stop straight away.
+    clockForkingEverySecond(120, controller, model, atleast(MODE_emergencystop),
+        atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN, (PhysicalUnits m) -> swap(
+            m::getSteamSensor, m::setSteamSensor, new SteamSensorModels.TxFailure(m)));
+    // DONE
   }
 
 
@@ -134,23 +124,20 @@ public class SafetyTests {
   @Test
   public void safetytest_06() {
     SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
-    // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      // Try each pump individually
-      for (int i = 0; i != config.getNumberOfPumps(); ++i) {
-        MySteamBoilerController controller = new MySteamBoilerController(config);
-        PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-        model.setMode(PhysicalUnits.Mode.WAITING);
-        // Clock system for a given amount of time. We're not expecting anything to go
-        // wrong during this time.
-        clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-        // Configure the steam sensor to fail
-        model.setPump(i, new PumpModels.TxFailureAll(i, 0.0, model));
-        // FIRST
-        clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-        // DONE
-      }
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    // Try each pump individually
+    Fault[] faults = new Fault[config.getNumberOfPumps()];
+    for (int i = 0; i != faults.length; ++i) {
+      final int pump = i;
+      faults[i] = (PhysicalUnits m) -> swap(() -> m.getPump(pump), p -> m.setPump(pump, p),
+          new PumpModels.TxFailureAll(pump, 0.0, m));
     }
+    // Check various time frames before transmission failure
+    clockForkingEverySecond(120, controller, model, atleast(MODE_emergencystop),
+        atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN, faults);
+    // DONE
   }
 
   /**
@@ -159,23 +146,20 @@ public class SafetyTests {
   @Test
   public void safetytest_07() {
     SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
-    // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      // Try each pump in turn
-      for (int i = 0; i != config.getNumberOfPumps(); ++i) {
-        MySteamBoilerController controller = new MySteamBoilerController(config);
-        PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-        model.setMode(PhysicalUnits.Mode.WAITING);
-        // Clock system for a given amount of time. We're not expecting anything to go
-        // wrong during this time.
-        clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-        // Configure the pump to fail
-        model.setPumpController(i, new PumpControllerModels.TxFailure(i, model));
-        // FIRST
-        clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-        // DONE
-      }
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    // Try each pump in turn
+    Fault[] faults = new Fault[config.getNumberOfPumps()];
+    for (int i = 0; i != faults.length; ++i) {
+      final int pump = i;
+      faults[i] = (PhysicalUnits m) -> swap(() -> m.getPumpController(pump),
+          p -> m.setPumpController(pump, p), new PumpControllerModels.TxFailure(pump, m));
     }
+    // Check various time frames before transmission failure
+    clockForkingEverySecond(120, controller, model, atleast(MODE_emergencystop),
+        atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN, faults);
+    // DONE
   }
 
   /**
@@ -194,7 +178,7 @@ public class SafetyTests {
         .linearSteamConversionModel(elapsed, 60000, config.getMaximualSteamRate());
     // Clock system for a given amount of time. We're not expecting anything to go
     // wrong during this time.
-    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN);
     // Under ideal conditions, should get here without problems. Now, break the steam boiler! With
     // four pumps at default 4L/s, that's a maximum filling of 16L/s. Therefore, evacuation needs to
     // be more than that.
@@ -220,7 +204,7 @@ public class SafetyTests {
     model.setMode(PhysicalUnits.Mode.WAITING);
     // Clock system for a given amount of time. We're not expecting anything to go
     // wrong during this time.
-    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN);
     // Break all pumps by forcing them closed.
     for (int i = 0; i != config.getNumberOfPumps(); ++i) {
       model.setPump(i, new PumpModels.StuckClosed(i, config.getPumpCapacity(i), model));
@@ -250,7 +234,7 @@ public class SafetyTests {
     model.setMode(PhysicalUnits.Mode.WAITING);
     // Clock system for a given amount of time. We're not expecting anything to go
     // wrong during this time.
-    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN);
     // Under ideal conditions, should get here without problems. Now, we break the pump by forcing
     // it on and with an aggressive capacity.
     model.setPump(0, new PumpModels.SticksOpen(0, 20, model));
@@ -275,7 +259,7 @@ public class SafetyTests {
     model.setMode(PhysicalUnits.Mode.WAITING);
     // Clock system for a given amount of time. We're not expecting anything to go
     // wrong during this time.
-    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN);
     // Under ideal conditions, should get here without problems. Now, break both level and steam
     // sensor.
     model.setLevelSensor(new LevelSensorModels.StuckNegativeOne(model));
@@ -298,12 +282,12 @@ public class SafetyTests {
     model.setMode(PhysicalUnits.Mode.WAITING);
     // Clock system for a given amount of time. We're not expecting anything to go
     // wrong during this time.
-    clockForWithout(240, controller, model, atleast(MODE_emergencystop));
+    clockForWithout(240, controller, model, atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN);
     // Under ideal conditions, should get here without problems. Now, break the steam sensor forcing
     // the system into degraded mode.  It should be able to carry on for a while though like this.
     model.setSteamSensor(new SteamSensorModels.StuckNegativeOne(model));
     // Continue clocking the system. It should continue working.
-    clockForWithout(120, controller, model, atleast(MODE_emergencystop));
+    clockForWithout(120, controller, model, atleast(MODE_emergencystop), Stepping.EVENT_DRIVEN);
     // Finally, break the level sensor at which point it should emergency stop.
     model.setLevelSensor(new LevelSensorModels.StuckNegativeOne(model));
     // We should now immediately enter emergency stop!
@@ -0,0 +1,344 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.ANY;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.MODE_normal;
+import static steam.boiler.tests.TestUtils.OpenPump;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+import static steam.boiler.tests.TestUtils.exactly;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.tests.TestUtils.Stepping;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the simulation infrastructure used by the other tests, rather than the
+ * controller itself. Specifically, that faster ways of simulating the system give the same
+ * results as the straightforward approach, or results within a stated tolerance where they are
+ * only approximate.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SimulationTests {
+
+  /**
+   * Maximum difference (in litres) allowed between water levels simulated in different ways. This
+   * is the error bound documented for {@link Stepping#EVENT_DRIVEN}.
+   */
+  private static final double TOLERANCE = 0.5;
+
+  // =====================================================================
+  // Stepping
+  // =====================================================================
+
+  /**
+   * Check event driven stepping gives the water level within tolerance of fixed stepping over a
+   * range of times, including those which don't fall on a transmission.
+   */
+  @Test
+  public void test_stepping_01() {
+    for (int time = 0; time <= 240; time += 7) {
+      test_stepping(time, SteamBoilerCharacteristics.DEFAULT);
+    }
+  }
+
+  /**
+   * Check event driven stepping gives the water level within tolerance of fixed stepping when the
+   * boiler starts out below the normal range, and must be filled.
+   */
+  @Test
+  public void test_stepping_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    for (int numberOfPumps = 1; numberOfPumps <= 6; ++numberOfPumps) {
+      test_stepping(240, config.setNumberOfPumps(numberOfPumps, config.getPumpCapacity(0)));
+    }
+  }
+
+  /**
+   * Check a boiler with far more pumps than the smallest mailboxes can hold messages for is still
+   * simulated. The pumps are tiny, so that every one of them is opened to fill the boiler.
+   */
+  @Test
+  public void test_stepping_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    test_stepping(60, config.setNumberOfPumps(100, 0.1));
+  }
+
+  private void test_stepping(int time, SteamBoilerCharacteristics config) {
+    PhysicalUnits fixed = run(time, config, Stepping.FIXED);
+    PhysicalUnits eventDriven = run(time, config, Stepping.EVENT_DRIVEN);
+    assertEquals("water level differs after " + time + "s", fixed.getBoiler().getWaterLevel(),
+        eventDriven.getBoiler().getWaterLevel(), TOLERANCE);
+  }
+
+  private PhysicalUnits run(int time, SteamBoilerCharacteristics config, Stepping stepping) {
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(time, controller, model, atleast(MODE_emergencystop), stepping);
+    return model;
+  }
+
+  // =====================================================================
+  // Fault Campaigns
+  // =====================================================================
+
+  /**
+   * Check running a fault campaign in parallel gives exactly the same outcomes as running it
+   * sequentially.
+   */
+  @Test
+  public void test_campaign_01() {
+    FaultCampaign campaign = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT,
+        new int[] { 0, 3, 17, 42 }, 10).addTransmissionFailures()
+            .withStepping(Stepping.EVENT_DRIVEN);
+    ForkJoinPool pool = new ForkJoinPool(1);
+    FaultCampaign.Report sequential;
+    try {
+      sequential = campaign.run(pool);
+    } finally {
+      pool.shutdown();
+    }
+    FaultCampaign.Report parallel = campaign.run();
+    assertEquals(sequential.size(), parallel.size());
+    for (int i = 0; i != sequential.size(); ++i) {
+      assertEquals(sequential.getScenario(i).toString(), sequential.getOutcome(i),
+          parallel.getOutcome(i));
+    }
+  }
+
+  /**
+   * Check a fault campaign covers every combination of fault model, pump and time.
+   */
+  @Test
+  public void test_campaign_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int[] times = { 0, 1, 2 };
+    FaultCampaign campaign = new FaultCampaign(config, times, 10).addTransmissionFailures();
+    // Level and steam sensors, plus each pump and pump controller
+    int models = 2 + (2 * config.getNumberOfPumps());
+    assertEquals(models * times.length, campaign.scenarios().size());
+  }
+
+  /**
+   * Check every transmission failure in a campaign leads to an emergency stop in the very exchange
+   * after the fault, whenever it is injected.
+   */
+  @Test
+  public void test_campaign_03() {
+    FaultCampaign.Report report = new FaultCampaign(SteamBoilerCharacteristics.DEFAULT,
+        new int[] { 0, 5, 11, 60 }, 10).addTransmissionFailures()
+            .withStepping(Stepping.EVENT_DRIVEN).run();
+    assertEquals(report.toString(), 0, report.getFailures());
+    for (int i = 0; i != report.size(); ++i) {
+      assertEquals(report.getScenario(i).toString(), 0, report.getOutcome(i));
+    }
+  }
+
+  /**
+   * Check a scenario which crashes is reported as such, along with the reason. Faults are injected
+   * straight away, so nothing else can go wrong first.
+   */
+  @Test
+  public void test_campaign_04() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    FaultCampaign.Report report = new FaultCampaign(config, new int[] { 0 }, 10)
+        .addPerPump("Broken", (int i) -> (PhysicalUnits m) -> {
+          throw new IllegalStateException("broken fault model");
+        }).run();
+    assertEquals(config.getNumberOfPumps(), report.getFailures());
+    for (int i = 0; i != report.size(); ++i) {
+      assertEquals(FaultCampaign.Report.CRASHED, report.getOutcome(i));
+      assertEquals("broken fault model", report.getCrash(i).getMessage());
+    }
+    assertTrue(report.toString(), report.toString().contains("broken fault model"));
+  }
+
+  /**
+   * Check a fault campaign has exactly the same outcomes under event driven stepping as under
+   * fixed stepping, including for faults injected between transmissions.
+   */
+  @Test
+  public void test_campaign_05() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int[] times = { 0, 3, 17, 42, 60 };
+    FaultCampaign.Report fixed = new FaultCampaign(config, times, 10).addTransmissionFailures()
+        .withStepping(Stepping.FIXED).run();
+    FaultCampaign.Report eventDriven = new FaultCampaign(config, times, 10)
+        .addTransmissionFailures().withStepping(Stepping.EVENT_DRIVEN).run();
+    assertEquals(fixed.size(), eventDriven.size());
+    for (int i = 0; i != fixed.size(); ++i) {
+      assertEquals(fixed.getScenario(i).toString(), fixed.getOutcome(i),
+          eventDriven.getOutcome(i));
+    }
+  }
+
+  // =====================================================================
+  // Batch Simulation
+  // =====================================================================
+
+  /**
+   * Check every scenario in a batch follows the reference model whilst an empty boiler is filled
+   * during initialisation, for a range of pump counts.
+   */
+  @Test
+  public void test_batch_01() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    for (int numberOfPumps = 1; numberOfPumps <= 6; ++numberOfPumps) {
+      test_batch(config.setNumberOfPumps(numberOfPumps, config.getPumpCapacity(0)), 8);
+    }
+  }
+
+  /**
+   * Check scenarios in a batch are independent, by starting each at a different level and
+   * comparing against a batch holding only that scenario.
+   */
+  @Test
+  public void test_batch_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int size = 16;
+    BatchSimulator batch = new BatchSimulator(config, size, 10, e -> 0.0);
+    MySteamBoilerController[] controllers = controllers(config, size);
+    BatchSimulator[] singles = new BatchSimulator[size];
+    MySteamBoilerController[][] singleControllers = new MySteamBoilerController[size][];
+    for (int i = 0; i != size; ++i) {
+      double level = (config.getCapacity() * i) / size;
+      batch.setLevel(i, level);
+      singles[i] = new BatchSimulator(config, 1, 10, e -> 0.0);
+      singles[i].setLevel(0, level);
+      singleControllers[i] = controllers(config, 1);
+    }
+    for (int t = 0; t < 120; t += 5) {
+      batch.cycle(controllers, 5000);
+      for (int i = 0; i != size; ++i) {
+        singles[i].cycle(singleControllers[i], 5000);
+        assertEquals("scenario " + i + " differs after " + t + "s", singles[i].getLevel(0),
+            batch.getLevel(i), 0.0);
+        assertEquals(singles[i].getMode(0), batch.getMode(i));
+      }
+    }
+  }
+
+  /**
+   * Check the level of an operating boiler follows the given steam model, valve rate and pump
+   * capacities. There is no reference for these (see {@link BatchSimulator}), so the expected
+   * levels are worked out by hand.
+   */
+  @Test
+  public void test_batch_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    double capacity = config.getPumpCapacity(0);
+    BatchSimulator batch = new BatchSimulator(config, 1, 10, e -> 2.0);
+    batch.setLevel(0, 400);
+    batch.receive(0, mailbox(new Message(MessageKind.PROGRAM_READY)));
+    batch.receive(0, mailbox(new Message(MessageKind.MODE_m, Mode.NORMAL)));
+    assertEquals(BatchSimulator.OPERATING, batch.getMode(0));
+    // Steam only
+    batch.step(5000);
+    assertEquals(2.0, batch.getSteam(0), 0.0);
+    assertEquals(400 - (2.0 * 5), batch.getLevel(0), 1e-9);
+    // Steam and valve
+    batch.receive(0, mailbox(new Message(MessageKind.VALVE)));
+    batch.step(5000);
+    assertEquals(390 - ((2.0 + 10) * 5), batch.getLevel(0), 1e-9);
+    // Steam, valve and a pump
+    batch.receive(0, mailbox(new Message(MessageKind.OPEN_PUMP_n, 0)));
+    batch.step(5000);
+    assertEquals(330 + ((capacity - 2.0 - 10) * 5), batch.getLevel(0), 1e-9);
+    // Steam and a pump, once the valve is closed again
+    batch.receive(0, mailbox(new Message(MessageKind.VALVE)));
+    batch.step(5000);
+    assertEquals(330 + ((capacity - 12.0) * 5) + ((capacity - 2.0) * 5), batch.getLevel(0),
+        1e-9);
+  }
+
+  private void test_batch(SteamBoilerCharacteristics config, int size) {
+    BatchSimulator batch = new BatchSimulator(config, size, 10, e -> 0.0);
+    MySteamBoilerController[] controllers = controllers(config, size);
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    RingMailbox input = new RingMailbox(128);
+    RingMailbox output = new RingMailbox(128);
+    // Steam is only produced once the boiler is operating, and the reference steam model is not
+    // replicated here. Hence, scenarios are only compared until then.
+    for (int t = 0; t < 240 && batch.getMode(0) <= BatchSimulator.READY; t += 5) {
+      input.clear();
+      output.clear();
+      model.transmit(input);
+      controller.clock(input, output);
+      model.receive(output);
+      for (int i = 0; i != 50; ++i) {
+        model.clock(100);
+      }
+      batch.cycle(controllers, 5000);
+      for (int i = 0; i != size; ++i) {
+        assertEquals("water level differs after " + t + "s", model.getBoiler().getWaterLevel(),
+            batch.getLevel(i), TOLERANCE);
+      }
+    }
+  }
+
+  private static MySteamBoilerController[] controllers(SteamBoilerCharacteristics config,
+      int size) {
+    MySteamBoilerController[] controllers = new MySteamBoilerController[size];
+    for (int i = 0; i != size; ++i) {
+      controllers[i] = new MySteamBoilerController(config);
+    }
+    return controllers;
+  }
+
+  // =====================================================================
+  // Matching
+  // =====================================================================
+
+  /**
+   * Check overlapping matchers are assigned distinct messages, regardless of the order in which
+   * they are given.
+   */
+  @Test
+  public void test_matching_01() {
+    RingMailbox mailbox = mailbox(new Message(MessageKind.OPEN_PUMP_n, 0),
+        new Message(MessageKind.OPEN_PUMP_n, 1));
+    assertTrue(exactly(OpenPump(ANY), OpenPump(0)).matches(mailbox));
+    assertTrue(exactly(OpenPump(0), OpenPump(ANY)).matches(mailbox));
+    assertFalse(exactly(OpenPump(0), OpenPump(0)).matches(mailbox));
+    assertFalse(exactly(OpenPump(ANY)).matches(mailbox));
+  }
+
+  /**
+   * Check messages are only matched by matchers of the same kind.
+   */
+  @Test
+  public void test_matching_02() {
+    RingMailbox mailbox = mailbox(new Message(MessageKind.MODE_m, Mode.NORMAL),
+        new Message(MessageKind.OPEN_PUMP_n, 3), new Message(MessageKind.OPEN_PUMP_n, 2));
+    assertTrue(exactly(OpenPump(2), MODE_normal, OpenPump(3)).matches(mailbox));
+    assertFalse(exactly(OpenPump(2), OpenPump(ANY), OpenPump(3)).matches(mailbox));
+    assertTrue(atleast(OpenPump(3), MODE_normal).matches(mailbox));
+    assertFalse(atleast(OpenPump(3), MODE_emergencystop).matches(mailbox));
+    assertTrue(atleast().matches(mailbox));
+  }
+
+  private static RingMailbox mailbox(Message... messages) {
+    RingMailbox mailbox = new RingMailbox(16);
+    for (Message m : messages) {
+      mailbox.send(m);
+    }
+    return mailbox;
+  }
+}
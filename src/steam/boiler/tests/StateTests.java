@@ -0,0 +1,101 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.midpoint;
+import static steam.boiler.tests.TestUtils.transmission;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.MySteamBoilerController.State;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the table of controller states, namely the kinds of message each state
+ * consumes, and that every cycle is dispatched to the handler of the current state.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class StateTests {
+
+  /**
+   * Check readings are consumed in every state, whilst the handshake messages are only consumed in
+   * the states which wait for them.
+   */
+  @Test
+  public void test_state_01() {
+    for (State state : State.values()) {
+      assertTrue(state.consumes(MessageKind.LEVEL_v));
+      assertTrue(state.consumes(MessageKind.STEAM_v));
+      assertTrue(state.consumes(MessageKind.PUMP_STATE_n_b));
+      assertTrue(state.consumes(MessageKind.PUMP_CONTROL_STATE_n_b));
+      assertEquals(state == State.WAITING, state.consumes(MessageKind.STEAM_BOILER_WAITING));
+      assertEquals(state == State.WAITING || state == State.READY,
+          state.consumes(MessageKind.PHYSICAL_UNITS_READY));
+    }
+  }
+
+  /**
+   * Check physical units signalling both waiting and ready in the same cycle pass straight from
+   * waiting through ready into normal mode, and that the same messages are ignored once in normal
+   * mode, since they are not consumed there.
+   */
+  @Test
+  public void test_state_02() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    double midpoint = midpoint(config);
+    RingMailbox output = new RingMailbox(64);
+    controller.clock(handshake(config, midpoint), output);
+    assertEquals(3, output.size());
+    assertEquals(MessageKind.PROGRAM_READY, output.read(0).getKind());
+    assertEquals(Mailbox.Mode.INITIALISATION, output.read(1).getModeParameter());
+    assertEquals(Mailbox.Mode.NORMAL, output.read(2).getModeParameter());
+    assertEquals("NORMAL", controller.getStatusMessage());
+    //
+    output = new RingMailbox(64);
+    controller.clock(handshake(config, midpoint), output);
+    assertEquals(0, output.size());
+    assertEquals("NORMAL", controller.getStatusMessage());
+  }
+
+  /**
+   * Check a level reading out of range whilst waiting stops the physical units, and that nothing
+   * else is sent in the same cycle (in particular, not the initialisation mode).
+   */
+  @Test
+  public void test_state_03() {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    for (double level : new double[] { -1, config.getCapacity() }) {
+      MySteamBoilerController controller = new MySteamBoilerController(config);
+      RingMailbox output = new RingMailbox(64);
+      controller.clock(handshake(config, level), output);
+      assertEquals(1, output.size());
+      assertEquals(Mailbox.Mode.EMERGENCY_STOP, output.read(0).getModeParameter());
+      assertEquals("EMERGENCY_STOP", controller.getStatusMessage());
+    }
+  }
+
+  /**
+   * Construct a well-formed transmission from the physical units, which signals both waiting and
+   * ready.
+   *
+   * @param config
+   *          The boiler characteristics to be used.
+   * @param level
+   *          The water level to report.
+   * @return The set of messages transmitted.
+   */
+  private static Mailbox handshake(SteamBoilerCharacteristics config, double level) {
+    Mailbox input = transmission(config, level);
+    input.send(new Message(MessageKind.STEAM_BOILER_WAITING));
+    input.send(new Message(MessageKind.PHYSICAL_UNITS_READY));
+    return input;
+  }
+}